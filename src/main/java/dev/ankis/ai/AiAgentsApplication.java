@@ -0,0 +1,13 @@
+package dev.ankis.ai;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+
+@SpringBootApplication
+public class AiAgentsApplication {
+
+	public static void main(String[] args) {
+		SpringApplication.run(AiAgentsApplication.class, args);
+	}
+
+}
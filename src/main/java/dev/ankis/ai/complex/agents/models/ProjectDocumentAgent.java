@@ -4,17 +4,25 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import dev.ankis.ai.models.Action;
 import dev.ankis.ai.models.ActionResult;
+import dev.ankis.ai.models.Checkpoint;
+import dev.ankis.ai.models.Conversation;
 import dev.ankis.ai.util.LLM;
 import dev.ankis.ai.models.Message;
 import dev.ankis.ai.models.Prompt;
 import dev.ankis.ai.models.Tool;
+import dev.ankis.ai.util.CheckpointStore;
+import dev.ankis.ai.util.DocumentOutputSink;
+import dev.ankis.ai.util.SessionBudget;
+import dev.ankis.ai.util.ToolPrefetcher;
+import dev.ankis.ai.util.ToolResultCache;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
 import java.util.*;
 import java.util.function.Function;
 
@@ -22,44 +30,121 @@ import java.util.function.Function;
 public class ProjectDocumentAgent {
     private static final Map<String, Function<Map<String, Object>, Object>> toolFunctions = new HashMap<>();
     private static List<Tool> tools = new ArrayList<>();
+    private static final boolean prefetchEnabled = Boolean.parseBoolean(System.getProperty("agent.prefetch.enabled", "true"));
+    private static final ToolResultCache toolResultCache = ToolResultCache.fromSystemProperties();
+    private static final int prefetchMaxFiles = Integer.getInteger("agent.prefetch.max-files", 8);
+    private static final DocumentOutputSink outputSink = DocumentOutputSink.fromSystemProperties();
+    private static final CheckpointStore checkpointStore = new CheckpointStore(
+            Path.of(System.getProperty("agent.checkpoint.dir", ".agent-checkpoints")));
 
-    public static void main(String[] args) {
-        LLM llm = new LLM();
-        ObjectMapper mapper = new ObjectMapper();
+    static {
+        registerAllTools();
+    }
 
-        try {
-            registerAllTools();
+    public static void main(String[] args) {
+        // Pass the id of an interrupted session as the first argument to resume it
+        String sessionId = args.length > 0 ? args[0] : UUID.randomUUID().toString();
+        run(new LLM(), sessionId);
+    }
 
-            List<Message> messages = new ArrayList<>();
-            messages.add(new Message("user", userMessage));
-            messages.add(new Message("system", systemMessage));
+    /**
+     * Runs (or resumes) one documentation session. Sessions only share the tools and their caches, so
+     * several of them can run concurrently.
+     */
+    public static void run(LLM llm, String sessionId) {
+        // One per session, concurrent sessions must not drop or consume each other's prefetched files
+        try (ToolPrefetcher prefetcher = new ToolPrefetcher(prefetchMaxFiles, toolResultCache)) {
+            Conversation messages = Conversation.of(Message.user(userMessage), Message.system(systemMessage));
+            int iteration = 0;
+            List<String> writtenDocs = new ArrayList<>();
+            Optional<Checkpoint> checkpoint = checkpointStore.load(sessionId);
+            if (checkpoint.isPresent()) {
+                messages = Conversation.from(checkpoint.get().getMessages());
+                iteration = checkpoint.get().getIteration();
+                writtenDocs.addAll((List<String>) checkpoint.get().getToolState().getOrDefault("writtenDocs", List.of()));
+                log.info("Resuming session {} from iteration {}", sessionId, iteration);
+            } else {
+                log.info("Starting session {}", sessionId);
+            }
 
-            while(true) {
+            SessionBudget budget = SessionBudget.fromSystemProperties();
+            boolean terminated = false;
+            // Written during the last turn, whose checkpoint waits until the document is on disk
+            String unsyncedDoc = null;
+            // A failed action may be retried as is, only repeating a successful one is a loop
+            boolean lastActionFailed = false;
+            while(!terminated) {
+                if (!budget.tryStartTurn()) {
+                    // Keep the checkpoint, the session can be resumed with a larger budget
+                    log.warn("Stopping session {}: {}", sessionId, budget.getExhaustedReason().orElse(""));
+                    outputSink.flush();
+                    if (unsyncedDoc != null) {
+                        saveCheckpoint(sessionId, iteration, messages, writtenDocs);
+                    }
+                    return;
+                }
                 Prompt prompt = new Prompt(messages, tools);
 
                 // Get the response
-                String response = llm.generateResponse(prompt);
+                String response = llm.generateResponse(prompt, budget);
+                if (unsyncedDoc != null) {
+                    // The document was written in the background while the model was thinking
+                    Optional<String> failure = syncDocuments();
+                    if (failure.isPresent()) {
+                        // The response assumes the write succeeded, report the failure and ask again instead
+                        log.error("Failed to write {}: {}", unsyncedDoc, failure.get());
+                        writtenDocs.remove(unsyncedDoc);
+                        messages = messages.append(Message.assistant("Failed to write the documentation file "
+                                + unsyncedDoc + ": " + failure.get()));
+                        unsyncedDoc = null;
+                        lastActionFailed = true;
+                        saveCheckpoint(sessionId, iteration, messages, writtenDocs);
+                        continue;
+                    }
+                    saveCheckpoint(sessionId, iteration, messages, writtenDocs);
+                    unsyncedDoc = null;
+                }
                 log.info(response);
-                messages.add(new Message("assistant", response));
+                messages = messages.append(Message.assistant(response));
 
                 Action action = parseAction(response);
                 if("terminate".equalsIgnoreCase(action.getTool())) {
-                    break;
+                    terminated = true;
+                    continue;
                 }
-                ActionResult actionResult = executeAction(action);
+                if (budget.recordAction(action) > 1 && !lastActionFailed) {
+                    // The result is already in the conversation, nudge the model instead of running the tool again
+                    messages = messages.append(Message.user("You already called " + action.getTool()
+                            + " with these arguments and its result is above. Move on to the next step or terminate."));
+                    continue;
+                }
+                ActionResult actionResult = runTool(action, prefetcher);
+                lastActionFailed = actionResult.getResult() == null;
                 if(actionResult.getResult() != null) {
                     if(actionResult.getResult() instanceof List<?>) {
                         List<String> results = (List<String>) actionResult.getResult();
-                        results.forEach(result -> {
-                            messages.add(new Message("assistant", "file: "+result));
-                        });
+                        for (String result : results) {
+                            messages = messages.append(Message.assistant("file: " + result));
+                        }
                     } else {
-                        messages.add(new Message("assistant", (String) actionResult.getResult()));
+                        messages = messages.append(Message.assistant((String) actionResult.getResult()));
+                    }
+                    if ("writeDocFile".equals(action.getTool())) {
+                        unsyncedDoc = (String) action.getArgs().get("fileName");
+                        writtenDocs.add(unsyncedDoc);
                     }
                 } else {
-                    messages.add(new Message("assistant", actionResult.getError()));
+                    messages = messages.append(Message.assistant(actionResult.getError()));
+                }
+
+                iteration++;
+                if (unsyncedDoc == null) {
+                    saveCheckpoint(sessionId, iteration, messages, writtenDocs);
                 }
             }
+            // Only mark the session done once its documents are on disk
+            outputSink.flush();
+            checkpointStore.complete(sessionId);
         } catch (JsonProcessingException e) {
             throw new RuntimeException(e);
         } catch (Exception e) {
@@ -69,8 +154,10 @@ public class ProjectDocumentAgent {
     }
 
     private static void registerAllTools() {
-        registerTool(listFileToolJson, args -> listJavaFiles((String) args.get("sourcePath")));
-        registerTool(readFileToolJson, args -> readFile((String) args.get("filePath")));
+        registerTool(listFileToolJson, args -> List.of(Path.of((String) args.get("sourcePath"))),
+                args -> listJavaFiles((String) args.get("sourcePath")));
+        registerTool(readFileToolJson, args -> List.of(Path.of((String) args.get("filePath"))),
+                args -> readFile((String) args.get("filePath")));
         registerTool(writeDocFileToolJson, args -> writeFile((String) args.get("fileName"),
                 (String) args.get("content")));
         registerTool(terminateToolJson, args -> terminate((String) args.get("message")));
@@ -84,18 +171,50 @@ public class ProjectDocumentAgent {
         return new Action(toolName, toolArgs);
     }
 
-    private static ActionResult executeAction(Action action) {
+    /**
+     * Runs the tool, serving reads from the session's prefetched files. The files of a listing are queued for
+     * prefetching, the model reads them next and the I/O overlaps with its thinking.
+     */
+    private static ActionResult runTool(Action action, ToolPrefetcher prefetcher) {
+        if (prefetchEnabled && "readFile".equals(action.getTool()) && action.getArgs() != null
+                && action.getArgs().get("filePath") instanceof String filePath) {
+            try {
+                Optional<String> prefetched = prefetcher.take(Path.of(filePath));
+                if (prefetched.isPresent()) {
+                    return new ActionResult(prefetched.get(), null);
+                }
+            } catch (InvalidPathException e) {
+                // Reported by the tool itself below
+            }
+        }
+        ActionResult actionResult = executeAction(action);
+        if (prefetchEnabled && "listJavaFiles".equals(action.getTool()) && actionResult.getResult() instanceof List<?> fileNames) {
+            Path srcDir = Path.of((String) action.getArgs().get("sourcePath"));
+            prefetcher.prefetch(fileNames.stream().map(name -> srcDir.resolve((String) name)).toList());
+        }
+        return actionResult;
+    }
+
+    /**
+     * Runs one of the tools, also used by the {@link ProjectDocumentCoordinator} workers.
+     */
+    static ActionResult executeAction(Action action) {
         ActionResult actionResult = null;
         Function<Map<String, Object>, Object> toolFunction = toolFunctions.get(action.getTool());
         if(toolFunction != null) {
-            if("listJavaFiles".equals(action.getTool())) {
-                List<String> result  = (List<String>) toolFunction.apply(action.getArgs());
-                actionResult = new ActionResult(result, null);
-            } else {
-                String result  = (String) toolFunction.apply(action.getArgs());
-                actionResult = new ActionResult(result, null);
+            try {
+                if("listJavaFiles".equals(action.getTool())) {
+                    List<String> result  = (List<String>) toolFunction.apply(action.getArgs());
+                    actionResult = new ActionResult(result, null);
+                } else {
+                    String result  = (String) toolFunction.apply(action.getArgs());
+                    actionResult = new ActionResult(result, null);
+                }
+            } catch (IllegalArgumentException e) {
+                // Bad arguments from the model, e.g. a document name outside of the docs directory: let it correct them
+                log.warn("Invalid arguments for tool {}: {}", action.getTool(), e.getMessage());
+                actionResult = new ActionResult(null, "Invalid arguments for " + action.getTool() + ": " + e.getMessage());
             }
-
         } else {
             log.info("No action found for tool {}", action.getTool());
             actionResult = new ActionResult(null, "Unknown tool: " + action.getTool());
@@ -103,6 +222,33 @@ public class ProjectDocumentAgent {
         return actionResult;
     }
 
+    /**
+     * A checkpoint lists the documents as written, so they must be on disk before it is saved, or a resumed
+     * session would never rewrite them.
+     *
+     * @return the reason the documents could not be written, if any.
+     */
+    private static Optional<String> syncDocuments() {
+        try {
+            outputSink.sync();
+            return Optional.empty();
+        } catch (UncheckedIOException e) {
+            return Optional.of(e.getCause().getMessage());
+        }
+    }
+
+    private static void saveCheckpoint(String sessionId, int iteration, Conversation messages, List<String> writtenDocs) {
+        checkpointStore.save(new Checkpoint(sessionId, iteration, messages.toList(),
+                Map.of("writtenDocs", List.copyOf(writtenDocs)), System.currentTimeMillis(), false));
+    }
+
+    /**
+     * Blocks until every document written so far is on disk.
+     */
+    static void flushDocuments() {
+        outputSink.flush();
+    }
+
     private static List<String> listJavaFiles(String path) {
         File srcDir = new File(path);
         return Arrays.stream(Objects.requireNonNull(srcDir.listFiles()))
@@ -124,18 +270,8 @@ public class ProjectDocumentAgent {
     }
 
     private static String writeFile(String fileName, String content) {
-        String filePath = "/Users/ankit_sood/Dev/Repositories/ai-agents-java/docs/" + fileName;
-        Path path = Path.of(filePath);
-        Path parent = path.getParent();
-        try {
-            if (parent != null) {
-                Files.createDirectories(parent);
-            }
-            Files.writeString(path, content, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-        return filePath;
+        // Queued, the sink writes it in the background
+        return outputSink.write(fileName, content).toString();
     }
 
     private static String terminate(String message){
@@ -149,6 +285,17 @@ public class ProjectDocumentAgent {
         toolFunctions.put(tool.getToolName(), function);
     }
 
+    /**
+     * Registers a pure tool, whose result only depends on its arguments and on the paths returned by
+     * {@code dependsOn}. Its results are cached until one of those paths changes on disk.
+     */
+    private static void registerTool(String toolJson, Function<Map<String, Object>, List<Path>> dependsOn,
+                                     Function<Map<String, Object>, Object> function) {
+        Tool tool = Tool.fromJson(toolJson);
+        tools.add(tool);
+        toolFunctions.put(tool.getToolName(), toolResultCache.cached(tool.getToolName(), dependsOn, function));
+    }
+
     private static final String listFileToolJson = """
             {
                 "toolName" : "listJavaFiles",
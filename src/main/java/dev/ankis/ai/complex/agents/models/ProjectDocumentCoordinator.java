@@ -0,0 +1,202 @@
+package dev.ankis.ai.complex.agents.models;
+
+import dev.ankis.ai.models.Action;
+import dev.ankis.ai.models.ActionResult;
+import dev.ankis.ai.models.Message;
+import dev.ankis.ai.util.LLM;
+import dev.ankis.ai.util.SessionBudget;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+/**
+ * Documents a whole source tree with a pool of workers instead of a single {@link ProjectDocumentAgent}
+ * conversation.
+ *
+ * Every java file becomes a work item, documented by one small, independent model call that only holds that
+ * file, so the context never grows with the size of the tree. Items are dealt out to one deque per worker; a
+ * worker takes from the head of its own deque and, once it is empty, steals from the tail of the others, so
+ * workers that got quick files help out the ones stuck on large files. The workers read every file exactly
+ * once, straight from disk rather than through the cached tools, so the tree never piles up in the heap, and
+ * write through the {@link ProjectDocumentAgent} tools. The coordinator merges their results into an index.
+ */
+@Slf4j
+public class ProjectDocumentCoordinator {
+    private static final String INDEX_NAME = "README.md";
+
+    public static void main(String[] args) {
+        Path sourceDir = Path.of(args.length > 0 ? args[0] : System.getProperty("agent.coordinator.source-dir", "src/main/java/dev/ankis/ai"));
+        run(new LLM(), sourceDir, Integer.getInteger("agent.workers", 8));
+    }
+
+    /**
+     * Documents every java file under {@code sourceDir} with {@code workers} concurrent workers.
+     *
+     * @return the outcome of every file, in source order. Failed files are listed in the index too.
+     */
+    public static List<WorkResult> run(LLM llm, Path sourceDir, int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("At least one worker is needed, got " + workers);
+        }
+        List<Path> files = javaFiles(sourceDir);
+        // Largest first, so the long calls start early and the small ones fill the gaps at the end
+        List<WorkItem> items = files.stream()
+                .map(file -> new WorkItem(file, docFileName(sourceDir, file), size(file)))
+                .sorted(Comparator.comparingLong(WorkItem::size).reversed())
+                .toList();
+
+        List<Deque<WorkItem>> queues = new ArrayList<>();
+        for (int i = 0; i < workers; i++) {
+            queues.add(new ConcurrentLinkedDeque<>());
+        }
+        for (int i = 0; i < items.size(); i++) {
+            queues.get(i % workers).addLast(items.get(i));
+        }
+
+        // One turn per file, the other limits are shared by the whole run. Not the agent.budget.* properties,
+        // those limit a single ProjectDocumentAgent session
+        SessionBudget budget = new SessionBudget(
+                Integer.getInteger("agent.coordinator.max-turns", items.size()),
+                Duration.ofSeconds(Long.getLong("agent.coordinator.max-duration-seconds", 1800)),
+                Long.getLong("agent.coordinator.max-tokens", 5_000_000),
+                Double.parseDouble(System.getProperty("agent.coordinator.max-cost-usd", "5.0")),
+                Integer.MAX_VALUE);
+        Queue<WorkResult> results = new ConcurrentLinkedQueue<>();
+        log.info("Documenting {} files from {} with {} workers", items.size(), sourceDir, workers);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < workers; i++) {
+                int worker = i;
+                executor.execute(() -> work(llm, budget, queues, worker, results));
+            }
+        }
+
+        List<WorkResult> merged = results.stream()
+                .sorted(Comparator.comparing(WorkResult::docFileName))
+                .toList();
+        ProjectDocumentAgent.executeAction(new Action("writeDocFile",
+                Map.of("fileName", INDEX_NAME, "content", index(sourceDir, merged))));
+        ProjectDocumentAgent.flushDocuments();
+        long failed = merged.stream().filter(result -> result.error() != null).count();
+        log.info("Documented {} of {} files ({} failed), used {} tokens, ${}", merged.size() - failed, items.size(),
+                failed, budget.getTotalTokens(), String.format("%.4f", budget.getCostUsd()));
+        return merged;
+    }
+
+    private static void work(LLM llm, SessionBudget budget, List<Deque<WorkItem>> queues, int worker,
+                             Queue<WorkResult> results) {
+        WorkItem item;
+        while ((item = next(queues, worker)) != null) {
+            if (!budget.tryStartTurn()) {
+                results.add(new WorkResult(item.source(), item.docFileName(),
+                        "Skipped, " + budget.getExhaustedReason().orElse("budget exhausted")));
+                continue;
+            }
+            try {
+                results.add(document(llm, budget, item));
+                log.info("Worker {} documented {}", worker, item.source());
+            } catch (RuntimeException e) {
+                log.warn("Worker {} failed to document {}", worker, item.source(), e);
+                results.add(new WorkResult(item.source(), item.docFileName(), String.valueOf(e.getMessage())));
+            }
+        }
+    }
+
+    /**
+     * Takes the next item from the head of the worker's own deque, or steals one from the tail of another
+     * worker's deque. Null once every deque is empty, no items are added after the start.
+     */
+    private static WorkItem next(List<Deque<WorkItem>> queues, int worker) {
+        WorkItem item = queues.get(worker).pollFirst();
+        for (int i = 1; item == null && i < queues.size(); i++) {
+            item = queues.get((worker + i) % queues.size()).pollLast();
+        }
+        return item;
+    }
+
+    private static WorkResult document(LLM llm, SessionBudget budget, WorkItem item) {
+        String source;
+        try {
+            source = Files.readString(item.source());
+        } catch (IOException e) {
+            return new WorkResult(item.source(), item.docFileName(), "Failed to read the file: " + e.getMessage());
+        }
+        // Fails on a truncated response, so a cut off document is recorded as a failure rather than written
+        String documentation = llm.generateFullResponse(List.of(
+                Message.system(workerSystemMessage),
+                Message.user("File: " + item.source().getFileName() + "\n\n```java\n" + source + "\n```")), budget);
+        ActionResult written = ProjectDocumentAgent.executeAction(
+                new Action("writeDocFile", Map.of("fileName", item.docFileName(), "content", documentation)));
+        return new WorkResult(item.source(), item.docFileName(), written.getError());
+    }
+
+    private static String index(Path sourceDir, List<WorkResult> results) {
+        StringBuilder index = new StringBuilder("# Documentation of `").append(sourceDir).append("`\n\n");
+        for (WorkResult result : results) {
+            if (result.error() == null) {
+                index.append("- [").append(sourceDir.relativize(result.source())).append("](")
+                        .append(result.docFileName()).append(")\n");
+            }
+        }
+        if (results.stream().anyMatch(result -> result.error() != null)) {
+            index.append("\n## Not documented\n\n");
+            for (WorkResult result : results) {
+                if (result.error() != null) {
+                    index.append("- ").append(sourceDir.relativize(result.source())).append(": ")
+                            .append(result.error()).append("\n");
+                }
+            }
+        }
+        return index.toString();
+    }
+
+    private static List<Path> javaFiles(Path sourceDir) {
+        try (Stream<Path> paths = Files.walk(sourceDir)) {
+            return paths.filter(Files::isRegularFile)
+                    .filter(path -> path.getFileName().toString().endsWith(".java"))
+                    .toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to list the java files under " + sourceDir, e);
+        }
+    }
+
+    // Mirrors the package layout, so classes with the same name in different packages don't collide
+    private static String docFileName(Path sourceDir, Path file) {
+        String relative = sourceDir.relativize(file).toString().replace('\\', '/');
+        return relative.substring(0, relative.length() - ".java".length()) + ".md";
+    }
+
+    private static long size(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    record WorkItem(Path source, String docFileName, long size) {
+    }
+
+    /**
+     * Outcome of one file, {@code error} is null if its documentation was written.
+     */
+    public record WorkResult(Path source, String docFileName, String error) {
+    }
+
+    private static final String workerSystemMessage = """
+            You are an AI agent that generates the documentation of a single java file in markdown format.
+            Describe the purpose of the class and each and every method of the class: its parameters, its return
+            value and its behaviour.
+            
+            Reply with the markdown document only, without any surrounding text or code fences.
+            """;
+}
@@ -4,19 +4,30 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import dev.ankis.ai.models.Action;
 import dev.ankis.ai.models.ActionResult;
+import dev.ankis.ai.models.Conversation;
 import dev.ankis.ai.util.LLM;
+import dev.ankis.ai.util.SessionBudget;
 import dev.ankis.ai.models.Message;
+import dev.ankis.ai.util.ToolResultCache;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 @Slf4j
 public class FileAgent {
-    private static List<Message> conversation = new ArrayList<>();
     private static final ObjectMapper mapper = new ObjectMapper();
+    private static final ToolResultCache toolResultCache = ToolResultCache.fromSystemProperties();
+    private static final Function<Map<String, Object>, Object> cachedListFiles =
+            toolResultCache.cached("listFiles", args -> List.of(Path.of(".")), args -> listFiles());
+    private static final Function<Map<String, Object>, Object> cachedReadFile =
+            toolResultCache.cached("readFile", args -> List.of(Path.of((String) args.get("fileName"))),
+                    args -> readFile((String) args.get("fileName")));
 
     private static final String systemPrompt = """
             You are an AI Agent that can perform tasks by using the available tools.
@@ -40,52 +51,61 @@ public class FileAgent {
             """;
 
     public static void main(String[] args) throws JsonProcessingException {
+        Scanner sc = new Scanner(System.in);
+        run(new LLM(), () -> {
+            log.info("Provide the operation, you want to perform.");
+            return sc.nextLine();
+        });
+    }
+
+    /**
+     * Runs one agent session, asking {@code userInputs} for the operation to perform on every turn.
+     */
+    public static void run(LLM llm, Supplier<String> userInputs) throws JsonProcessingException {
         int maxIterations = 10;
-        LLM llm = new LLM();
+        // Every turn waits on the user: a deadline would count their thinking time, and asking for the same file
+        // again is their call, the model takes a single action per request
+        SessionBudget budget = new SessionBudget(maxIterations, null, 200_000, 0.25, Integer.MAX_VALUE);
+        Conversation conversation = Conversation.of(getSystemPrompt());
         // Agent loop
-        while(true) {
-            // Include the system message and context so far
-            List<Message> messages = new ArrayList<>();
-            messages.add(getSystemPrompt());
-            messages.addAll(conversation);
-
+        while(budget.tryStartTurn()) {
             // take the input
-            log.info("Provide the operation, you want to perform.");
-            Scanner sc = new Scanner(System.in);
-            String userInput = sc.nextLine();
-            messages.add(new Message("user", userInput));
+            String userInput = userInputs.get();
+
+            // Include the system message and context so far
+            Conversation messages = conversation.append(Message.user(userInput));
 
             log.info("Agent thinking....");
-            String response = llm.generateResponse(messages);
+            String response = llm.generateResponse(messages, budget);
             log.info("Response: {}", response);
-            conversation.add(new Message("assistant", response));
+            conversation = conversation.append(Message.assistant(response));
 
             Action action = parseAction(response);
             ActionResult result = null;
             if(action != null) {
                 if("listFiles".equalsIgnoreCase(action.getTool())) {
-                    result = new ActionResult(listFiles(), null);
+                    result = new ActionResult(cachedListFiles.apply(action.getArgs()), null);
                 } else if ("readFile".equalsIgnoreCase(action.getTool())) {
-                    String fileName = (String) action.getArgs().getOrDefault("fileName", null);
-                    result = new ActionResult(readFile(fileName), null);
+                    result = new ActionResult(cachedReadFile.apply(action.getArgs()), null);
                 } else if ("error".equalsIgnoreCase(action.getTool())) {
                     String errorMessage = (String) action.getArgs().getOrDefault("errorMessage", null);
                     result = new ActionResult(null, errorMessage);
                 } else if ("terminate".equalsIgnoreCase(action.getTool())) {
                     log.info("Terminating agent ...");
-                    break;
+                    return;
                 } else {
                     log.error("Unknown Action: {}", action);
                 }
 
                 log.info("Action Result: {}", result.toMap());
-                conversation.add(new Message("user", mapper.writeValueAsString(result.toMap())));
+                conversation = conversation.append(Message.user(mapper.writeValueAsString(result.toMap())));
             }
         }
+        budget.getExhaustedReason().ifPresent(reason -> log.warn("Stopping agent: {}", reason));
     }
 
     private static Message getSystemPrompt() {
-        return new Message("system", systemPrompt);
+        return Message.system(systemPrompt);
     }
 
     // Tool to list the files in the current directory
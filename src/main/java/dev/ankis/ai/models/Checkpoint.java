@@ -0,0 +1,20 @@
+package dev.ankis.ai.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.Map;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class Checkpoint {
+    private String sessionId;
+    private int iteration;
+    private List<Message> messages;
+    private Map<String, Object> toolState;
+    private long timestamp;
+    private boolean completed;
+}
@@ -0,0 +1,9 @@
+package dev.ankis.ai.models;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyDescription;
+
+public record CodeSnippet(
+        @JsonProperty("title") @JsonPropertyDescription("Short title of the code") String title,
+        @JsonProperty("code") @JsonPropertyDescription("The complete source code") String code) {
+}
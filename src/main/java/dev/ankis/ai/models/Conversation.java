@@ -0,0 +1,79 @@
+package dev.ankis.ai.models;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Persistent (immutable, structurally shared) list of messages.
+ *
+ * Appending returns a new conversation that points back to the one it was appended to, so forking a
+ * session or building the message list of the next turn is O(1) and never copies the history.
+ */
+public final class Conversation implements Iterable<Message> {
+    private static final Conversation EMPTY = new Conversation(null, null, 0);
+
+    private final Conversation previous;
+    private final Message last;
+    private final int size;
+
+    private Conversation(Conversation previous, Message last, int size) {
+        this.previous = previous;
+        this.last = last;
+        this.size = size;
+    }
+
+    public static Conversation empty() {
+        return EMPTY;
+    }
+
+    public static Conversation of(Message... messages) {
+        return EMPTY.appendAll(Arrays.asList(messages));
+    }
+
+    public static Conversation from(Iterable<Message> messages) {
+        return messages instanceof Conversation conversation ? conversation : EMPTY.appendAll(messages);
+    }
+
+    public Conversation append(Message message) {
+        return new Conversation(this, message, size + 1);
+    }
+
+    public Conversation appendAll(Iterable<Message> messages) {
+        Conversation conversation = this;
+        for (Message message : messages) {
+            conversation = conversation.append(message);
+        }
+        return conversation;
+    }
+
+    /**
+     * @return the most recent message, or {@code null} if the conversation is empty.
+     */
+    public Message last() {
+        return last;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public List<Message> toList() {
+        Message[] messages = new Message[size];
+        Conversation conversation = this;
+        for (int i = size - 1; i >= 0; i--) {
+            messages[i] = conversation.last;
+            conversation = conversation.previous;
+        }
+        return List.of(messages);
+    }
+
+    @Override
+    public Iterator<Message> iterator() {
+        return toList().iterator();
+    }
+}
@@ -1,11 +1,40 @@
 package dev.ankis.ai.models;
 
-import lombok.AllArgsConstructor;
-import lombok.Data;
-
-@Data
-@AllArgsConstructor
-public class Message {
-    private String role;
-    private String content;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import dev.ankis.ai.util.ContentInterner;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.Objects;
+
+/**
+ * Immutable conversation message. The content is interned, so repeated system prompts and tool outputs
+ * share a single copy across all the conversations holding them.
+ */
+@Getter
+@ToString
+@EqualsAndHashCode
+public final class Message {
+    private final Role role;
+    private final String content;
+
+    @JsonCreator
+    public Message(@JsonProperty("role") Role role, @JsonProperty("content") String content) {
+        this.role = Objects.requireNonNull(role, "role");
+        this.content = ContentInterner.intern(content);
+    }
+
+    public static Message system(String content) {
+        return new Message(Role.SYSTEM, content);
+    }
+
+    public static Message user(String content) {
+        return new Message(Role.USER, content);
+    }
+
+    public static Message assistant(String content) {
+        return new Message(Role.ASSISTANT, content);
+    }
 }
@@ -11,19 +11,27 @@ import java.util.Map;
 @Getter
 @AllArgsConstructor
 public class Prompt {
-    private List<Message> messages;
+    private Conversation messages;
     private List<Tool> tools;
     private Map<String, Object> metadata;
 
-    public Prompt(List<Message> messages) {
+    public Prompt(Conversation messages) {
         this.messages = messages;
         this.tools = new ArrayList<>();
         this.metadata = new HashMap<>();
     }
 
-    public Prompt(List<Message> messages, List<Tool> tools) {
+    public Prompt(Conversation messages, List<Tool> tools) {
         this.messages = messages;
         this.tools = tools;
         this.metadata = new HashMap<>();
     }
+
+    public Prompt(List<Message> messages) {
+        this(Conversation.from(messages));
+    }
+
+    public Prompt(List<Message> messages, List<Tool> tools) {
+        this(Conversation.from(messages), tools);
+    }
 }
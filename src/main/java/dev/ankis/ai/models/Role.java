@@ -0,0 +1,27 @@
+package dev.ankis.ai.models;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+public enum Role {
+    SYSTEM("system"),
+    USER("user"),
+    ASSISTANT("assistant");
+
+    @JsonValue
+    private final String value;
+
+    @JsonCreator
+    public static Role fromValue(String value) {
+        for (Role role : values()) {
+            if (role.value.equalsIgnoreCase(value)) {
+                return role;
+            }
+        }
+        throw new IllegalArgumentException("Unknown role: " + value);
+    }
+}
@@ -0,0 +1,59 @@
+package dev.ankis.ai.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+@RestController
+@RequestMapping("/api/sessions")
+public class AgentController {
+    private static final String TENANT_HEADER = "X-Tenant-Id";
+
+    private final AgentService agentService;
+
+    public AgentController(AgentService agentService) {
+        this.agentService = agentService;
+    }
+
+    @PostMapping
+    @ResponseStatus(HttpStatus.CREATED)
+    public SessionResponse startSession(@RequestHeader(name = TENANT_HEADER, defaultValue = "default") String tenantId,
+                                        @RequestBody(required = false) StartSessionRequest request) {
+        AgentSession session = agentService.startSession(tenantId, request == null ? null : request.systemPrompt());
+        return new SessionResponse(session.getSessionId());
+    }
+
+    @PostMapping("/{sessionId}/turns")
+    public TurnResponse turn(@RequestHeader(name = TENANT_HEADER, defaultValue = "default") String tenantId,
+                             @PathVariable String sessionId,
+                             @RequestBody TurnRequest request) {
+        return new TurnResponse(agentService.turn(tenantId, sessionId, request.message()));
+    }
+
+    @PostMapping(path = "/{sessionId}/turns/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamTurn(@RequestHeader(name = TENANT_HEADER, defaultValue = "default") String tenantId,
+                                 @PathVariable String sessionId,
+                                 @RequestBody TurnRequest request) {
+        return agentService.streamTurn(tenantId, sessionId, request.message());
+    }
+
+    @DeleteMapping("/{sessionId}")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public void endSession(@RequestHeader(name = TENANT_HEADER, defaultValue = "default") String tenantId,
+                           @PathVariable String sessionId) {
+        agentService.endSession(tenantId, sessionId);
+    }
+
+    public record StartSessionRequest(String systemPrompt) {
+    }
+
+    public record SessionResponse(String sessionId) {
+    }
+
+    public record TurnRequest(String message) {
+    }
+
+    public record TurnResponse(String response) {
+    }
+}
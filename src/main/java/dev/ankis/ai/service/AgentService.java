@@ -0,0 +1,225 @@
+package dev.ankis.ai.service;
+
+import dev.ankis.ai.models.Conversation;
+import dev.ankis.ai.util.HashingEmbedder;
+import dev.ankis.ai.util.LLM;
+import dev.ankis.ai.util.SemanticCache;
+import dev.ankis.ai.util.SessionBudget;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+@Slf4j
+@Service
+public class AgentService {
+    private final LLM llm = new LLM();
+    private final Map<String, AgentSession> sessions = new ConcurrentHashMap<>();
+    // Only holds tenants with at least one session
+    private final Map<String, Integer> sessionsPerTenant = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService reaper = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().daemon().name("session-reaper").factory());
+    private final ExecutorService streamExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private final TenantConcurrencyLimiter limiter;
+    private final String defaultSystemPrompt;
+    private final int maxTurns;
+    private final long maxTokens;
+    private final double maxCostUsd;
+    private final Duration idleTimeout;
+    private final int maxSessionsPerTenant;
+    // Null when disabled. Shared by all sessions, but scoped by tenant so tenants never see each other's answers
+    private final SemanticCache semanticCache;
+
+    public AgentService(TenantConcurrencyLimiter limiter,
+                        @Value("${agent.service.default-system-prompt}") String defaultSystemPrompt,
+                        @Value("${agent.service.semantic-cache.enabled}") boolean semanticCacheEnabled,
+                        @Value("${agent.service.semantic-cache.min-similarity}") double minSimilarity,
+                        @Value("${agent.service.semantic-cache.capacity}") int capacity,
+                        @Value("${agent.service.budget.max-turns}") int maxTurns,
+                        @Value("${agent.service.budget.max-tokens}") long maxTokens,
+                        @Value("${agent.service.budget.max-cost-usd}") double maxCostUsd,
+                        @Value("${agent.service.session-idle-timeout-seconds}") long idleTimeoutSeconds,
+                        @Value("${agent.service.max-sessions-per-tenant}") int maxSessionsPerTenant) {
+        this.limiter = limiter;
+        this.defaultSystemPrompt = defaultSystemPrompt;
+        this.maxTurns = maxTurns;
+        this.maxTokens = maxTokens;
+        this.maxCostUsd = maxCostUsd;
+        this.idleTimeout = Duration.ofSeconds(idleTimeoutSeconds);
+        this.maxSessionsPerTenant = maxSessionsPerTenant;
+        long sweepSeconds = Math.clamp(idleTimeoutSeconds / 4, 1, 60);
+        reaper.scheduleWithFixedDelay(this::removeExpiredSessions, sweepSeconds, sweepSeconds, TimeUnit.SECONDS);
+        // Answers only match within the same tenant, system prompt and history
+        this.semanticCache = semanticCacheEnabled
+                ? new SemanticCache(new HashingEmbedder(256), minSimilarity, capacity)
+                : null;
+    }
+
+    public AgentSession startSession(String tenantId, String systemPrompt) {
+        String sessionId = UUID.randomUUID().toString();
+        boolean[] admitted = new boolean[1];
+        sessionsPerTenant.compute(tenantId, (id, count) -> {
+            int current = count == null ? 0 : count;
+            admitted[0] = current < maxSessionsPerTenant;
+            return admitted[0] ? current + 1 : count;
+        });
+        if (!admitted[0]) {
+            throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS,
+                    "Tenant " + tenantId + " already has " + maxSessionsPerTenant + " sessions");
+        }
+        // No overall deadline, an interactive session is bounded by its idle timeout instead. The service never
+        // records tool actions, so the repeated action limit does not apply.
+        SessionBudget budget = new SessionBudget(maxTurns, null, maxTokens, maxCostUsd, Integer.MAX_VALUE);
+        AgentSession session = new AgentSession(sessionId, tenantId,
+                systemPrompt == null || systemPrompt.isBlank() ? defaultSystemPrompt : systemPrompt,
+                budget, idleTimeout);
+        sessions.put(sessionId, session);
+        log.info("Started session {} for tenant {}", sessionId, tenantId);
+        return session;
+    }
+
+    public String turn(String tenantId, String sessionId, String message) {
+        AgentSession session = getSession(tenantId, sessionId);
+        limiter.acquire(tenantId);
+        try {
+            return session.turn(message, messages -> cached(tenantId, messages)
+                    .orElseGet(() -> cache(tenantId, messages, llm.generateResponse(messages, session.getBudget()))));
+        } finally {
+            limiter.release(tenantId);
+            removeIfEnded(session);
+        }
+    }
+
+    /**
+     * Runs the turn on its own virtual thread and sends the response to the emitter token by token. The
+     * tenant's permit is taken up front, so a tenant over its limit gets a 429 instead of an empty stream.
+     */
+    public SseEmitter streamTurn(String tenantId, String sessionId, String message) {
+        AgentSession session = getSession(tenantId, sessionId);
+        // Checked up front too, so an ended session gets a 410 rather than an error event in the stream
+        try {
+            session.ensureActive();
+        } finally {
+            removeIfEnded(session);
+        }
+        limiter.acquire(tenantId);
+        SseEmitter emitter = new SseEmitter(0L);
+        try {
+            streamExecutor.execute(() -> {
+                try {
+                    session.turn(message, messages -> {
+                        Optional<String> cached = cached(tenantId, messages);
+                        if (cached.isPresent()) {
+                            send(emitter, "token", cached.get());
+                            return cached.get();
+                        }
+                        return cache(tenantId, messages, llm.streamResponse(messages, session.getBudget(),
+                                token -> send(emitter, "token", token)));
+                    });
+                    send(emitter, "done", "");
+                    emitter.complete();
+                } catch (Exception e) {
+                    log.error("Streaming turn of session {} failed", sessionId, e);
+                    emitter.completeWithError(e);
+                } finally {
+                    limiter.release(tenantId);
+                    removeIfEnded(session);
+                }
+            });
+        } catch (RuntimeException e) {
+            limiter.release(tenantId);
+            throw e;
+        }
+        return emitter;
+    }
+
+    public void endSession(String tenantId, String sessionId) {
+        AgentSession session = getSession(tenantId, sessionId);
+        session.end();
+        remove(session);
+        log.info("Ended session {} for tenant {}", sessionId, tenantId);
+    }
+
+    /**
+     * Interrupts the streaming turns still running and waits briefly for them to give their tenant permits
+     * back, so none of them outlives the application context.
+     */
+    @PreDestroy
+    public void close() {
+        reaper.shutdownNow();
+        streamExecutor.shutdownNow();
+        try {
+            if (!streamExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+                log.warn("Streaming turns still running after shutdown");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void removeExpiredSessions() {
+        Instant now = Instant.now();
+        for (AgentSession session : sessions.values()) {
+            if (session.isExpired(now) && remove(session)) {
+                log.info("Expired session {} of tenant {}", session.getSessionId(), session.getTenantId());
+            }
+        }
+    }
+
+    private boolean remove(AgentSession session) {
+        if (!sessions.remove(session.getSessionId(), session)) {
+            return false;
+        }
+        sessionsPerTenant.computeIfPresent(session.getTenantId(), (id, count) -> count > 1 ? count - 1 : null);
+        return true;
+    }
+
+    private AgentSession getSession(String tenantId, String sessionId) {
+        AgentSession session = sessions.get(sessionId);
+        if (session == null || !session.getTenantId().equals(tenantId)) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown session: " + sessionId);
+        }
+        return session;
+    }
+
+    private void removeIfEnded(AgentSession session) {
+        if (session.isEnded() && remove(session)) {
+            log.info("Session {} of tenant {} has ended", session.getSessionId(), session.getTenantId());
+        }
+    }
+
+    private Optional<String> cached(String tenantId, Conversation messages) {
+        return semanticCache == null ? Optional.empty() : semanticCache.lookup(tenantId, messages);
+    }
+
+    private String cache(String tenantId, Conversation messages, String response) {
+        if (semanticCache != null) {
+            semanticCache.put(tenantId, messages, response);
+        }
+        return response;
+    }
+
+    private static void send(SseEmitter emitter, String event, String data) {
+        try {
+            emitter.send(SseEmitter.event().name(event).data(data));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
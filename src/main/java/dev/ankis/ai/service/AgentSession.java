@@ -0,0 +1,103 @@
+package dev.ankis.ai.service;
+
+import dev.ankis.ai.models.Conversation;
+import dev.ankis.ai.models.Message;
+import dev.ankis.ai.util.SessionBudget;
+import lombok.Getter;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Conversation of one HTTP client with an agent. Turns of the same session are serialized, turns of
+ * different sessions run concurrently.
+ *
+ * A session has no overall deadline, it ends once it has been idle for longer than {@code idleTimeout} or
+ * its budget is spent. An ended session never takes another turn, so it is answered with a 410.
+ */
+public class AgentSession {
+    @Getter
+    private final String sessionId;
+    @Getter
+    private final String tenantId;
+    @Getter
+    private volatile Conversation conversation;
+    @Getter
+    private final SessionBudget budget;
+    private final Duration idleTimeout;
+    private volatile Instant lastActive = Instant.now();
+    @Getter
+    private volatile boolean ended;
+    // Not synchronized, a virtual thread blocked on the model call must not pin its carrier
+    private final ReentrantLock lock = new ReentrantLock();
+
+    public AgentSession(String sessionId, String tenantId, String systemPrompt, SessionBudget budget,
+                        Duration idleTimeout) {
+        this.sessionId = sessionId;
+        this.tenantId = tenantId;
+        this.conversation = Conversation.of(Message.system(systemPrompt));
+        this.budget = budget;
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * @throws ResponseStatusException with a 410 if the session has ended, e.g. because its budget is spent.
+     */
+    public void ensureActive() {
+        Optional<String> reason = endReason();
+        if (reason.isPresent()) {
+            ended = true;
+            throw new ResponseStatusException(HttpStatus.GONE, "Session " + sessionId + " has ended: " + reason.get());
+        }
+    }
+
+    /**
+     * @return true if the session has ended, or has been idle for longer than its timeout with no turn in
+     * progress.
+     */
+    public boolean isExpired(Instant now) {
+        return ended || (!lock.isLocked() && lastActive.plus(idleTimeout).isBefore(now));
+    }
+
+    public void end() {
+        ended = true;
+    }
+
+    /**
+     * Appends the user message, generates the reply from the resulting conversation and appends it.
+     */
+    public String turn(String userMessage, Function<Conversation, String> generate) {
+        lock.lock();
+        try {
+            ensureActive();
+            if (!budget.tryStartTurn()) {
+                ended = true;
+                throw new ResponseStatusException(HttpStatus.GONE, "Session " + sessionId + " has ended: "
+                        + budget.getExhaustedReason().orElse("its budget is spent"));
+            }
+            lastActive = Instant.now();
+            Conversation messages = conversation.append(Message.user(userMessage));
+            String response = generate.apply(messages);
+            conversation = messages.append(Message.assistant(response));
+            return response;
+        } finally {
+            lastActive = Instant.now();
+            lock.unlock();
+        }
+    }
+
+    private Optional<String> endReason() {
+        if (ended) {
+            return Optional.of("it was ended");
+        }
+        if (lastActive.plus(idleTimeout).isBefore(Instant.now())) {
+            return Optional.of("idle for more than " + idleTimeout.toSeconds() + " seconds");
+        }
+        return budget.getExhaustedReason();
+    }
+}
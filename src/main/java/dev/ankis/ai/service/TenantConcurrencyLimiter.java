@@ -0,0 +1,47 @@
+package dev.ankis.ai.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Caps the number of turns a single tenant can have in flight, so one busy tenant cannot take up all the
+ * model quota. Turns over the limit are rejected straight away with a 429 rather than queued.
+ *
+ * Only tenants with turns in flight hold a semaphore, so arbitrary tenant ids sent by clients don't pile up.
+ */
+@Component
+public class TenantConcurrencyLimiter {
+    private final int maxConcurrentTurns;
+    private final Map<String, Semaphore> permits = new ConcurrentHashMap<>();
+
+    public TenantConcurrencyLimiter(@Value("${agent.service.max-concurrent-turns-per-tenant}") int maxConcurrentTurns) {
+        this.maxConcurrentTurns = maxConcurrentTurns;
+    }
+
+    public void acquire(String tenantId) {
+        boolean[] acquired = new boolean[1];
+        permits.compute(tenantId, (id, semaphore) -> {
+            Semaphore tenantPermits = semaphore == null ? new Semaphore(maxConcurrentTurns) : semaphore;
+            acquired[0] = tenantPermits.tryAcquire();
+            return tenantPermits;
+        });
+        if (!acquired[0]) {
+            throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS,
+                    "Tenant " + tenantId + " already has " + maxConcurrentTurns + " turns in progress");
+        }
+    }
+
+    public void release(String tenantId) {
+        // Atomic with acquire, so a semaphore is never dropped while another turn takes a permit from it
+        permits.computeIfPresent(tenantId, (id, semaphore) -> {
+            semaphore.release();
+            return semaphore.availablePermits() == maxConcurrentTurns ? null : semaphore;
+        });
+    }
+}
@@ -1,28 +1,33 @@
 package dev.ankis.ai.simple.agents;
 
+import dev.ankis.ai.models.Conversation;
+import dev.ankis.ai.util.HashingEmbedder;
 import dev.ankis.ai.util.LLM;
 import dev.ankis.ai.models.Message;
+import dev.ankis.ai.util.SemanticCache;
 import lombok.extern.slf4j.Slf4j;
 
-import java.util.ArrayList;
 import java.util.List;
 
 @Slf4j
 public class CustomerServiceAgent {
     public static void main(String[] args) throws Exception {
         LLM llm = new LLM();
+        // Reworded questions are answered from the cache instead of the model
+        llm.setSemanticCache(new SemanticCache(new HashingEmbedder(256), 0.85, 10_000));
 
-        List<Message> messages = new ArrayList<>();
-        // add the system message
-        messages.add(new Message("system", systemMessage));
-        //add the user message
-        //messages.add(new Message("user", "How do I get my internet working again ?"));
+        List<String> questions = List.of(
+                "How do I get my internet working again ?",
+                "How can I get my internet to work again?",
+                "What is the capital of India ?");
 
-        messages.add(new Message("user", "What is the capital of India ?"));
-
-        String response = llm.generateResponse(messages);
-        log.info("Response: {}", response);
+        for (String question : questions) {
+            // add the system message and the user message
+            Conversation messages = Conversation.of(Message.system(systemMessage), Message.user(question));
 
+            String response = llm.generateResponse(messages);
+            log.info("Response: {}", response);
+        }
     }
 
     private static final String systemMessage = """
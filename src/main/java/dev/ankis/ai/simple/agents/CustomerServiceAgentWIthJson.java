@@ -1,6 +1,7 @@
 package dev.ankis.ai.simple.agents;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.ankis.ai.models.CodeSnippet;
 import dev.ankis.ai.util.LLM;
 import dev.ankis.ai.models.Message;
 import lombok.extern.slf4j.Slf4j;
@@ -27,23 +28,16 @@ public class CustomerServiceAgentWIthJson {
         String codeSpecString = mapper.writeValueAsString(codeSpec);
 
         List<Message> messages = new ArrayList<>();
-        messages.add(new Message("system", systemMessage));
-        messages.add(new Message("user", codeSpecString));
+        messages.add(Message.system(systemMessage));
+        messages.add(Message.user(codeSpecString));
 
-        String response = llm.generateResponse(messages);
-        log.info("Response: {}", response);
+        CodeSnippet response = llm.generateResponse(messages, CodeSnippet.class);
+        log.info("Title: {}", response.title());
+        log.info("Code: {}", response.code());
 
     }
 
     private static final String systemMessage = """
             You are an expert java software engineer that prefers functional programming.
-            You need to return the response as JSON in the format:
-            
-            ```json
-            {
-                "title" : <String Value>,
-                "code" : <String Value>, 
-            }
-            ```
             """;
 }
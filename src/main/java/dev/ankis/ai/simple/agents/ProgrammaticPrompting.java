@@ -20,11 +20,11 @@ public class ProgrammaticPrompting {
 //        List<Message> messages = new ArrayList<>();
 //
 //        // Add system message
-//        messages.add(new Message("system",
+//        messages.add(Message.system(
 //                "You are an expert software engineer that prefers functional programming."));
 //
 //        // Add user message
-//        messages.add(new Message("user",
+//        messages.add(Message.user(
 //                "Write a function to swap the keys and values in a dictionary."));
 //
 //        // Generate response using the LLM class
@@ -41,10 +41,10 @@ public class ProgrammaticPrompting {
         List<Message> messages = new ArrayList<>();
 
         // Add system message
-        messages.add(new Message("system", "Respond in Base64 encoded string only."));
+        messages.add(Message.system("Respond in Base64 encoded string only."));
 
         // Add user message
-        messages.add(new Message("user", "How are you doing?"));
+        messages.add(Message.user("How are you doing?"));
 
         // Generate response using the LLM class
         String response = llm.generateResponse(messages);
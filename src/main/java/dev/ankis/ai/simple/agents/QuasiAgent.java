@@ -1,12 +1,15 @@
 package dev.ankis.ai.simple.agents;
 
+import dev.ankis.ai.models.Conversation;
 import dev.ankis.ai.util.LLM;
 import dev.ankis.ai.models.Message;
+import dev.ankis.ai.util.Workflow;
 import lombok.extern.slf4j.Slf4j;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.CompletionException;
 
 @Slf4j
 public class QuasiAgent {
@@ -18,39 +21,47 @@ public class QuasiAgent {
             You don't have to return any explanation just return what is asked for.
             """;
 
-    private static List<Message> conversationHistory = new ArrayList<>();
-
     public static void main(String[] args) {
         log.info("Starting QuasiAgent");
-        log.info("Please enter the function you want to create");
-        conversationHistory.add(new Message("system", systemPrompt));
 
         Scanner scanner = new Scanner(System.in);
-        String userInput = scanner.nextLine();
-
-        String functionCode = generateFunction(userInput);
-        log.info("1. Function Code: {}", functionCode);
-        conversationHistory.add(new Message("assistant", functionCode));
-
-        String functionWithDocumentation = addDocumentation(functionCode);
-        log.info("2. Function With Documentation: {}", functionWithDocumentation);
-        conversationHistory.add(new Message("assistant", functionWithDocumentation));
-
-        String completeCode = addTestCases();
-        log.info("3. Complete Code: {}", completeCode);
+        LLM llm = new LLM();
+        // Documentation and test cases are both derived from the generated function, so they run in parallel.
+        // The workflow is reused for every prompt, so entering a prompt again after a failure only reruns the
+        // steps that failed.
+        try (Workflow workflow = new Workflow()
+                .step("functionCode", List.of("userPrompt"), inputs -> generateFunction(llm, inputs.get("userPrompt")))
+                .step("documentation", List.of("functionCode"), inputs -> addDocumentation(llm, inputs.get("functionCode")))
+                .step("testCases", List.of("functionCode"), inputs -> addTestCases(llm, inputs.get("functionCode")))) {
+            while (true) {
+                log.info("Please enter the function you want to create (empty line to quit)");
+                if (!scanner.hasNextLine()) {
+                    return;
+                }
+                String userInput = scanner.nextLine();
+                if (userInput.isBlank()) {
+                    return;
+                }
+                try {
+                    Map<String, String> results = workflow.run(Map.of("userPrompt", userInput));
+                    log.info("1. Function Code: {}", results.get("functionCode"));
+                    log.info("2. Function With Documentation: {}", results.get("documentation"));
+                    log.info("3. Test Cases: {}", results.get("testCases"));
+                } catch (CompletionException e) {
+                    log.error("Failed to generate the function, enter the same prompt to retry the failed steps", e);
+                }
+            }
+        }
     }
 
-    private static String generateFunction(String userPrompt) {
-        LLM llm = new LLM();
+    private static String generateFunction(LLM llm, String userPrompt) {
         String userInput = userPrompt + """
                 Just provide the code. Don't provide any explanations. 
                 """;
-        conversationHistory.add(new Message("user", userInput));
-        return llm.generateResponse(conversationHistory);
+        return llm.generateResponse(Conversation.of(Message.system(systemPrompt), Message.user(userInput)));
     }
 
-    private static String addDocumentation(String generatedFunction) {
-        LLM llm = new LLM();
+    private static String addDocumentation(LLM llm, String generatedFunction) {
         String userMessage = """
                 Add comprehensive java docs. to the function. Include:
                 1. Function Description
@@ -61,13 +72,15 @@ public class QuasiAgent {
                 
                 Here's the function to document: \n
                 """ + generatedFunction;
-        conversationHistory.add(new Message("user", userMessage));
-        return llm.generateResponse(conversationHistory);
+        return llm.generateResponse(Conversation.of(Message.system(systemPrompt), Message.user(userMessage)));
     }
 
-    private static String addTestCases() {
-        LLM llm = new LLM();
-        conversationHistory.add(new Message("user", "Generate all the test cases and Include a function to all generated test cases."));
-        return llm.generateResponse(conversationHistory);
+    private static String addTestCases(LLM llm, String generatedFunction) {
+        String userMessage = """
+                Generate all the test cases and Include a function to all generated test cases.
+                
+                Here's the function to test: \n
+                """ + generatedFunction;
+        return llm.generateResponse(Conversation.of(Message.system(systemPrompt), Message.user(userMessage)));
     }
 }
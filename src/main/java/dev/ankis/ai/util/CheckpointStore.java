@@ -0,0 +1,241 @@
+package dev.ankis.ai.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.ankis.ai.models.Checkpoint;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only store of agent session checkpoints, so that a session can be resumed after a crash or restart.
+ *
+ * Checkpoints are appended to memory-mapped segment files as {@code [length][crc32][json]} records, and an
+ * in-memory index points to the latest checkpoint of every session. On startup the segments are replayed
+ * in order, stopping at the first torn or corrupt record. Once there are more than {@code maxSegments}
+ * segments and less than half of the bytes written belong to live checkpoints, the live checkpoints are
+ * rewritten into fresh segments and the old ones are deleted. A store whose live checkpoints alone need more
+ * segments just keeps growing, rather than being rewritten on every save.
+ */
+@Slf4j
+public class CheckpointStore implements AutoCloseable {
+    private static final int HEADER_SIZE = 8;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private final Map<String, Location> index = new HashMap<>();
+    // Size of the records the index points to
+    private long liveBytes;
+    private Segment active;
+    private boolean compacting;
+
+    public CheckpointStore(Path directory) {
+        this(directory, 16 * 1024 * 1024, 8);
+    }
+
+    public CheckpointStore(Path directory, int segmentSize, int maxSegments) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        try {
+            Files.createDirectories(directory);
+            recover();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public synchronized void save(Checkpoint checkpoint) {
+        try {
+            byte[] payload = mapper.writeValueAsBytes(checkpoint);
+            int recordSize = HEADER_SIZE + payload.length;
+            if (active == null || active.buffer.capacity() - active.position < recordSize) {
+                active = createSegment(Math.max(segmentSize, recordSize));
+            }
+            int offset = active.position;
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            // Write the length last, a record is only visible on replay once it is complete
+            active.buffer.put(offset + HEADER_SIZE, payload);
+            active.buffer.putInt(offset + 4, (int) crc.getValue());
+            active.buffer.putInt(offset, payload.length);
+            active.buffer.force();
+            active.position += recordSize;
+
+            updateIndex(checkpoint, new Location(active.id, offset, recordSize));
+            if (!compacting && segments.size() > maxSegments && liveBytes * 2 < writtenBytes()) {
+                compact();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public synchronized Optional<Checkpoint> load(String sessionId) {
+        Location location = index.get(sessionId);
+        return location == null ? Optional.empty() : Optional.of(read(location));
+    }
+
+    /**
+     * Marks the session as finished, its checkpoints are dropped on the next compaction.
+     */
+    public synchronized void complete(String sessionId) {
+        Checkpoint tombstone = new Checkpoint();
+        tombstone.setSessionId(sessionId);
+        tombstone.setTimestamp(System.currentTimeMillis());
+        tombstone.setCompleted(true);
+        save(tombstone);
+    }
+
+    public synchronized Set<String> sessionIds() {
+        return Set.copyOf(index.keySet());
+    }
+
+    public synchronized void compact() {
+        List<Checkpoint> live = index.values().stream().map(this::read).toList();
+        List<Segment> obsolete = new ArrayList<>(segments.values());
+        log.info("Compacting {} checkpoint segments holding {} live sessions", obsolete.size(), live.size());
+
+        compacting = true;
+        try {
+            active = null;
+            index.clear();
+            liveBytes = 0;
+            // Crashing half way is safe: the new segments sort after the old ones and replay to the same state
+            live.forEach(this::save);
+            for (Segment segment : obsolete) {
+                segments.remove(segment.id);
+                segment.channel.close();
+                Files.deleteIfExists(segment.path);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            compacting = false;
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        for (Segment segment : segments.values()) {
+            try {
+                segment.channel.close();
+            } catch (IOException e) {
+                log.warn("Unable to close checkpoint segment {}", segment.path, e);
+            }
+        }
+        segments.clear();
+        active = null;
+    }
+
+    private void recover() throws IOException {
+        List<Path> files;
+        try (Stream<Path> stream = Files.list(directory)) {
+            files = stream.filter(path -> path.getFileName().toString().startsWith(SEGMENT_PREFIX)
+                            && path.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted(Comparator.comparingInt(CheckpointStore::segmentId))
+                    .toList();
+        }
+        for (Path file : files) {
+            Segment segment = openSegment(file, segmentId(file), (int) Files.size(file));
+            segments.put(segment.id, segment);
+            while (segment.position + HEADER_SIZE <= segment.buffer.capacity()) {
+                int length = segment.buffer.getInt(segment.position);
+                if (length <= 0 || segment.position + HEADER_SIZE + length > segment.buffer.capacity()) {
+                    break;
+                }
+                byte[] payload = new byte[length];
+                segment.buffer.get(segment.position + HEADER_SIZE, payload);
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                if ((int) crc.getValue() != segment.buffer.getInt(segment.position + 4)) {
+                    log.warn("Corrupt checkpoint record in {} at offset {}, ignoring the rest of the segment",
+                            file, segment.position);
+                    break;
+                }
+                Checkpoint checkpoint = mapper.readValue(payload, Checkpoint.class);
+                updateIndex(checkpoint, new Location(segment.id, segment.position, HEADER_SIZE + length));
+                segment.position += HEADER_SIZE + length;
+            }
+            active = segment;
+        }
+        log.info("Recovered {} checkpointed sessions from {}", index.size(), directory);
+    }
+
+    private void updateIndex(Checkpoint checkpoint, Location location) {
+        Location previous = checkpoint.isCompleted()
+                ? index.remove(checkpoint.getSessionId())
+                : index.put(checkpoint.getSessionId(), location);
+        if (previous != null) {
+            liveBytes -= previous.size();
+        }
+        if (!checkpoint.isCompleted()) {
+            liveBytes += location.size();
+        }
+    }
+
+    private long writtenBytes() {
+        return segments.values().stream().mapToLong(segment -> segment.position).sum();
+    }
+
+    private Checkpoint read(Location location) {
+        MappedByteBuffer buffer = segments.get(location.segmentId()).buffer;
+        byte[] payload = new byte[buffer.getInt(location.offset())];
+        buffer.get(location.offset() + HEADER_SIZE, payload);
+        try {
+            return mapper.readValue(payload, Checkpoint.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Segment createSegment(int size) throws IOException {
+        int id = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+        Path path = directory.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+        Segment segment = openSegment(path, id, size);
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private static Segment openSegment(Path path, int id, int size) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        return new Segment(id, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+    }
+
+    private static int segmentId(Path path) {
+        String name = path.getFileName().toString();
+        return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private record Location(int segmentId, int offset, int size) {
+    }
+
+    private static class Segment {
+        private final int id;
+        private final Path path;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private int position;
+
+        private Segment(int id, Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+    }
+}
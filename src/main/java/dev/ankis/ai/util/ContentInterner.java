@@ -0,0 +1,31 @@
+package dev.ankis.ai.util;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Weak interner for message contents. Equal strings resolve to one shared instance for as long as any
+ * message holds it, after which the entry is reclaimed by the garbage collector.
+ */
+public final class ContentInterner {
+    private static final Map<String, WeakReference<String>> pool = new WeakHashMap<>();
+
+    private ContentInterner() {
+    }
+
+    public static String intern(String content) {
+        if (content == null) {
+            return null;
+        }
+        synchronized (pool) {
+            WeakReference<String> reference = pool.get(content);
+            String interned = reference == null ? null : reference.get();
+            if (interned != null) {
+                return interned;
+            }
+            pool.put(content, new WeakReference<>(content));
+            return content;
+        }
+    }
+}
@@ -0,0 +1,410 @@
+package dev.ankis.ai.util;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes generated documents from a background thread, so the agent loop never waits on disk I/O.
+ *
+ * Writes are batched for up to {@code flushInterval} (or {@code maxBatchSize} documents) and coalesced, so
+ * only the last content of a document rewritten within a batch hits the disk. Every file is written to a
+ * temporary file and renamed over the target, so readers never see a partially written document.
+ *
+ * Depending on the {@link Mode}, documents are written as individual files, as a single zip archive or as
+ * a single consolidated markdown file. In the last two modes, documents are staged as individual files in
+ * a hidden directory next to the output, and the archive or consolidated file is rebuilt from them on
+ * {@link #flush()}, streaming one document at a time. The staged documents outlive the JVM, so a later or
+ * resumed run adds to the previous output instead of replacing it.
+ */
+@Slf4j
+public class DocumentOutputSink implements AutoCloseable {
+    public enum Mode {
+        FILES,
+        ARCHIVE,
+        CONSOLIDATED
+    }
+
+    private static final String ARCHIVE_NAME = "docs.zip";
+    private static final String CONSOLIDATED_NAME = "documentation.md";
+    private static final String STAGING_DIR = ".documents";
+    private static final String SEPARATOR = "\n\n---\n\n";
+    private static final Pattern SECTION_HEADER = Pattern.compile("<!-- (.+?) -->\n\n");
+
+    private final Path outputDir;
+    private final Path stagingDir;
+    private final Mode mode;
+    private final Duration flushInterval;
+    private final int maxBatchSize;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition pendingChanged = lock.newCondition();
+    private final Condition batchWritten = lock.newCondition();
+    private Map<String, String> pending = new LinkedHashMap<>();
+    private long enqueuedSequence;
+    private long writtenSequence;
+    // The archive or consolidated file holds every document up to this sequence
+    private long publishedSequence;
+    private long publishRequested;
+    private boolean syncRequested;
+    private boolean closed;
+    private IOException failure;
+    private final Thread writer;
+
+    public DocumentOutputSink(Path outputDir, Mode mode, Duration flushInterval, int maxBatchSize) {
+        this.outputDir = outputDir.toAbsolutePath().normalize();
+        this.stagingDir = mode == Mode.FILES ? this.outputDir : this.outputDir.resolve(STAGING_DIR);
+        this.mode = mode;
+        this.flushInterval = flushInterval;
+        this.maxBatchSize = maxBatchSize;
+        try {
+            seedStaging();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read the existing documents in " + this.outputDir, e);
+        }
+        this.writer = Thread.ofPlatform().daemon().name("doc-writer").start(this::writeLoop);
+    }
+
+    /**
+     * Sink configured with the {@code agent.docs.*} system properties.
+     */
+    public static DocumentOutputSink fromSystemProperties() {
+        return new DocumentOutputSink(
+                Path.of(System.getProperty("agent.docs.dir", "docs")),
+                Mode.valueOf(System.getProperty("agent.docs.mode", "files").toUpperCase(Locale.ROOT)),
+                Duration.ofMillis(Long.getLong("agent.docs.flush-interval-millis", 1000)),
+                Integer.getInteger("agent.docs.max-batch-size", 100));
+    }
+
+    /**
+     * Queues the document for writing and returns straight away.
+     *
+     * @return the path the document will be written to (the archive or consolidated file in those modes).
+     * @throws IllegalArgumentException if the name is empty or points outside of the output directory.
+     */
+    public Path write(String fileName, String content) {
+        if (fileName == null || fileName.isBlank()) {
+            throw new IllegalArgumentException("Missing document name");
+        }
+        if (content == null) {
+            throw new IllegalArgumentException("Missing content for document " + fileName);
+        }
+        Path target = stagingDir.resolve(fileName).normalize();
+        if (!target.startsWith(stagingDir) || target.equals(stagingDir)) {
+            throw new IllegalArgumentException("Invalid document name: " + fileName);
+        }
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Document sink is closed");
+            }
+            pending.put(fileName, content);
+            enqueuedSequence++;
+            pendingChanged.signal();
+        } finally {
+            lock.unlock();
+        }
+        return switch (mode) {
+            case FILES -> target;
+            case ARCHIVE -> outputDir.resolve(ARCHIVE_NAME);
+            case CONSOLIDATED -> outputDir.resolve(CONSOLIDATED_NAME);
+        };
+    }
+
+    /**
+     * Blocks until every document queued so far is durably on disk, without rebuilding the archive or
+     * consolidated file. Cheap enough to call after every write that must survive a crash.
+     *
+     * @throws UncheckedIOException if a batch failed to be written since the last sync or flush.
+     */
+    public void sync() {
+        lock.lock();
+        try {
+            long target = enqueuedSequence;
+            if (writtenSequence < target) {
+                syncRequested = true;
+                pendingChanged.signal();
+            }
+            while (writtenSequence < target && writer.isAlive()) {
+                batchWritten.awaitUninterruptibly();
+            }
+            throwFailure();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until every document queued so far is on disk, including in the archive or consolidated file.
+     *
+     * @throws UncheckedIOException if a batch failed to be written since the last sync or flush.
+     */
+    public void flush() {
+        lock.lock();
+        try {
+            long target = enqueuedSequence;
+            if (publishedSequence < target) {
+                publishRequested = Math.max(publishRequested, target);
+                pendingChanged.signal();
+            }
+            while (publishedSequence < target && writer.isAlive()) {
+                batchWritten.awaitUninterruptibly();
+            }
+            throwFailure();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        flush();
+        lock.lock();
+        try {
+            closed = true;
+            pendingChanged.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void throwFailure() {
+        if (failure != null) {
+            IOException e = failure;
+            failure = null;
+            throw new UncheckedIOException("Failed to write documents to " + outputDir, e);
+        }
+    }
+
+    private void writeLoop() {
+        while (true) {
+            Map<String, String> batch;
+            long sequence;
+            boolean publish;
+            lock.lock();
+            try {
+                while (pending.isEmpty() && publishRequested <= publishedSequence && !closed) {
+                    pendingChanged.awaitUninterruptibly();
+                }
+                if (pending.isEmpty() && publishRequested <= publishedSequence) {
+                    return;
+                }
+                // Give the batch a chance to fill up and coalesce
+                long remaining = flushInterval.toNanos();
+                while (!pending.isEmpty() && remaining > 0 && !syncRequested && publishRequested <= publishedSequence
+                        && !closed && pending.size() < maxBatchSize) {
+                    try {
+                        remaining = pendingChanged.awaitNanos(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+                batch = pending;
+                pending = new LinkedHashMap<>();
+                sequence = enqueuedSequence;
+                syncRequested = false;
+                publish = publishRequested > publishedSequence;
+            } finally {
+                lock.unlock();
+            }
+
+            IOException batchFailure = null;
+            try {
+                writeBatch(batch);
+                if (publish) {
+                    publish();
+                }
+            } catch (IOException e) {
+                log.error("Failed to write {} documents to {}", batch.size(), outputDir, e);
+                batchFailure = e;
+            }
+
+            lock.lock();
+            try {
+                writtenSequence = sequence;
+                if (publish) {
+                    publishedSequence = sequence;
+                }
+                if (batchFailure != null) {
+                    failure = batchFailure;
+                }
+                batchWritten.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void writeBatch(Map<String, String> batch) throws IOException {
+        for (Map.Entry<String, String> document : batch.entrySet()) {
+            Path target = stagingDir.resolve(document.getKey()).normalize();
+            writeAtomically(target, out -> out.write(document.getValue().getBytes(StandardCharsets.UTF_8)));
+        }
+        log.debug("Wrote {} documents to {}", batch.size(), stagingDir);
+    }
+
+    /**
+     * Rebuilds the archive or consolidated file from the staged documents, holding one document in memory
+     * at a time.
+     */
+    private void publish() throws IOException {
+        if (mode == Mode.FILES || !Files.isDirectory(stagingDir)) {
+            return;
+        }
+        List<Path> documents = stagedDocuments();
+        if (mode == Mode.ARCHIVE) {
+            writeAtomically(outputDir.resolve(ARCHIVE_NAME), out -> {
+                ZipOutputStream zip = new ZipOutputStream(out);
+                for (Path document : documents) {
+                    zip.putNextEntry(new ZipEntry(documentName(document)));
+                    Files.copy(document, zip);
+                    zip.closeEntry();
+                }
+                zip.finish();
+            });
+        } else {
+            writeAtomically(outputDir.resolve(CONSOLIDATED_NAME), out -> {
+                boolean first = true;
+                for (Path document : documents) {
+                    if (!first) {
+                        out.write(SEPARATOR.getBytes(StandardCharsets.UTF_8));
+                    }
+                    first = false;
+                    out.write(("<!-- " + documentName(document) + " -->\n\n").getBytes(StandardCharsets.UTF_8));
+                    Files.copy(document, out);
+                }
+            });
+        }
+        log.debug("Rebuilt {} from {} documents", mode == Mode.ARCHIVE ? ARCHIVE_NAME : CONSOLIDATED_NAME, documents.size());
+    }
+
+    private List<Path> stagedDocuments() throws IOException {
+        try (Stream<Path> paths = Files.walk(stagingDir)) {
+            // Leftovers of an interrupted atomic write start with a dot and end with .tmp
+            return paths.filter(Files::isRegularFile)
+                    .filter(path -> !(path.getFileName().toString().startsWith(".")
+                            && path.getFileName().toString().endsWith(".tmp")))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private String documentName(Path document) {
+        return stagingDir.relativize(document).toString().replace('\\', '/');
+    }
+
+    /**
+     * Output written before the documents were staged (or by another copy of the sink) is unpacked into the
+     * staging directory, so the next rebuild keeps it.
+     */
+    private void seedStaging() throws IOException {
+        if (mode == Mode.FILES || Files.isDirectory(stagingDir)) {
+            return;
+        }
+        Path archive = outputDir.resolve(ARCHIVE_NAME);
+        Path consolidated = outputDir.resolve(CONSOLIDATED_NAME);
+        if (mode == Mode.ARCHIVE && Files.isRegularFile(archive)) {
+            try (InputStream in = Files.newInputStream(archive); ZipInputStream zip = new ZipInputStream(in)) {
+                ZipEntry entry;
+                while ((entry = zip.getNextEntry()) != null) {
+                    Path target = stagingDir.resolve(entry.getName()).normalize();
+                    if (!entry.isDirectory() && target.startsWith(stagingDir)) {
+                        writeAtomically(target, zip::transferTo);
+                    }
+                }
+            }
+            log.info("Seeded {} from the existing {}", stagingDir, archive);
+        } else if (mode == Mode.CONSOLIDATED && Files.isRegularFile(consolidated)) {
+            String text = Files.readString(consolidated);
+            Matcher header = SECTION_HEADER.matcher(text);
+            String name = null;
+            int start = 0;
+            while (header.find()) {
+                // Only headers at the start of the file or right after a separator start a new document
+                if (header.start() != 0 && !text.startsWith(SEPARATOR, header.start() - SEPARATOR.length())) {
+                    continue;
+                }
+                if (name != null) {
+                    stage(name, text.substring(start, header.start() - SEPARATOR.length()));
+                }
+                name = header.group(1);
+                start = header.end();
+            }
+            if (name != null) {
+                stage(name, text.substring(start));
+            }
+            log.info("Seeded {} from the existing {}", stagingDir, consolidated);
+        }
+    }
+
+    private void stage(String name, String content) throws IOException {
+        Path target = stagingDir.resolve(name).normalize();
+        if (target.startsWith(stagingDir)) {
+            writeAtomically(target, out -> out.write(content.getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+
+    /**
+     * The content is forced to disk before the rename, and the rename before returning, so the document
+     * survives an OS crash or power loss and is never replaced by a partially written one.
+     */
+    private static void writeAtomically(Path target, Content content) throws IOException {
+        Files.createDirectories(target.getParent());
+        Path temp = Files.createTempFile(target.getParent(), "." + target.getFileName(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel));
+                content.writeTo(out);
+                out.flush();
+                channel.force(true);
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            forceDirectory(target.getParent());
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void forceDirectory(Path dir) throws IOException {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (AccessDeniedException e) {
+            // Directories cannot be opened on Windows, where the rename is durable once it returns
+        }
+    }
+
+    private interface Content {
+        void writeTo(OutputStream out) throws IOException;
+    }
+}
@@ -0,0 +1,14 @@
+package dev.ankis.ai.util;
+
+/**
+ * Turns text into a fixed-size vector, so that texts with a similar meaning end up close to each other.
+ */
+public interface Embedder {
+
+    int dimension();
+
+    /**
+     * @return the embedding of the text, normalized to unit length.
+     */
+    float[] embed(String text);
+}
@@ -0,0 +1,91 @@
+package dev.ankis.ai.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Offline {@link Embedder} based on feature hashing: the words (lightly stemmed, without stop words) and word
+ * pairs of the text are hashed into a signed bag-of-words vector. It needs no model and catches rewordings
+ * of the same question, though not synonyms.
+ */
+public class HashingEmbedder implements Embedder {
+    private static final Set<String> STOP_WORDS = Set.of("a", "an", "the", "i", "me", "my", "you", "your", "we",
+            "our", "is", "are", "am", "be", "do", "does", "did", "can", "could", "would", "should", "will", "to",
+            "of", "in", "on", "for", "at", "it", "this", "that", "how", "what", "please", "and", "or", "again");
+    private static final float PAIR_WEIGHT = 0.5f;
+
+    private final int dimension;
+
+    public HashingEmbedder(int dimension) {
+        this.dimension = dimension;
+    }
+
+    @Override
+    public int dimension() {
+        return dimension;
+    }
+
+    @Override
+    public float[] embed(String text) {
+        List<String> words = words(text);
+        float[] vector = new float[dimension];
+        for (int i = 0; i < words.size(); i++) {
+            add(vector, words.get(i), 1f);
+            if (i > 0) {
+                add(vector, words.get(i - 1) + ' ' + words.get(i), PAIR_WEIGHT);
+            }
+        }
+        double norm = 0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        if (norm > 0) {
+            float scale = (float) (1 / Math.sqrt(norm));
+            for (int i = 0; i < dimension; i++) {
+                vector[i] *= scale;
+            }
+        }
+        return vector;
+    }
+
+    private void add(float[] vector, String feature, float weight) {
+        int hash = mix(feature.hashCode());
+        // The sign bit keeps colliding features from always adding up
+        vector[Math.floorMod(hash, dimension)] += (hash & 0x80000000) == 0 ? weight : -weight;
+    }
+
+    private static List<String> words(String text) {
+        List<String> words = new ArrayList<>();
+        for (String word : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty() && !STOP_WORDS.contains(word)) {
+                words.add(stem(word));
+            }
+        }
+        return words;
+    }
+
+    private static String stem(String word) {
+        if (word.length() > 5 && word.endsWith("ing")) {
+            return word.substring(0, word.length() - 3);
+        }
+        if (word.length() > 4 && word.endsWith("ed")) {
+            return word.substring(0, word.length() - 2);
+        }
+        if (word.length() > 3 && word.endsWith("s") && !word.endsWith("ss")) {
+            return word.substring(0, word.length() - 1);
+        }
+        return word;
+    }
+
+    private static int mix(int hash) {
+        // Murmur3 finalizer, String.hashCode alone spreads similar words poorly
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+}
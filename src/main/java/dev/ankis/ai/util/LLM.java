@@ -4,12 +4,15 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.openai.client.OpenAIClient;
 import com.openai.client.okhttp.OpenAIOkHttpClient;
 import com.openai.core.JsonValue;
+import com.openai.core.http.StreamResponse;
 import com.openai.models.ChatModel;
 import com.openai.models.FunctionDefinition;
 import com.openai.models.chat.completions.*;
+import com.openai.models.completions.CompletionUsage;
 import dev.ankis.ai.models.Message;
 import dev.ankis.ai.models.Prompt;
 import dev.ankis.ai.models.Tool;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.util.CollectionUtils;
 
@@ -17,6 +20,8 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
 
 @Slf4j
 public class LLM {
@@ -24,6 +29,23 @@ public class LLM {
 
     private String model = ChatModel.GPT_4_1_MINI.asString();
 
+    // Created on first use and shared by all calls, it holds the connection pool and dispatcher threads
+    private volatile OpenAIClient client;
+
+    // Optional, answers user messages close enough to ones already answered in the same context
+    @Setter
+    private volatile SemanticCache semanticCache;
+
+    public LLM() {
+    }
+
+    /**
+     * Uses the given client instead of one configured from the environment, e.g. to talk to a local stub.
+     */
+    public LLM(OpenAIClient client) {
+        this.client = client;
+    }
+
     /**
      * Generates an LLM response based on the provided messages.
      *
@@ -66,12 +88,22 @@ public class LLM {
      * }
      * ```
      *
-     * @param messages List of Message objects containing role and content.
+     * @param messages Message objects (a List or a Conversation) containing role and content.
      * @return The generated response as a String.
      */
-    public String generateResponse(List<Message> messages) {
-        // Initialize OpenAI client using environment variables
-        OpenAIClient client = OpenAIOkHttpClient.fromEnv();
+    public String generateResponse(Iterable<Message> messages) {
+        return generateResponse(messages, (SessionBudget) null);
+    }
+
+    /**
+     * Same as {@link #generateResponse(Iterable)}, charging the tokens used to the session budget.
+     */
+    public String generateResponse(Iterable<Message> messages, SessionBudget budget) {
+        Optional<String> cached = cachedResponse(messages);
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+        OpenAIClient client = client();
 
         // Transform custom Message objects to OpenAI's ChatCompletionMessageParam objects
         ChatCompletionCreateParams.Builder paramsBuilder = ChatCompletionCreateParams.builder()
@@ -79,76 +111,154 @@ public class LLM {
                 .maxTokens(1024);
 
         // Add messages individually to the builder
-        for (Message message : messages) {
-            if (message.getRole().equals("system")) {
-                ChatCompletionSystemMessageParam systemMsg = ChatCompletionSystemMessageParam.builder()
-                        .content(message.getContent())
-                        .build();
-                paramsBuilder.addMessage(systemMsg);
-            } else if (message.getRole().equals("user")) {
-                ChatCompletionUserMessageParam userMsg = ChatCompletionUserMessageParam.builder()
-                        .content(message.getContent())
-                        .build();
-                paramsBuilder.addMessage(userMsg);
-            } else {
-                // For assistant or other roles, use ChatCompletionAssistantMessageParam
-                ChatCompletionAssistantMessageParam assistantMsg = ChatCompletionAssistantMessageParam.builder()
-                        .content(message.getContent())
-                        .build();
-                paramsBuilder.addMessage(assistantMsg);
-            }
-        }
+        addMessages(paramsBuilder, messages);
 
         // Get completion response
+        StartupProbe.firstRequest();
         ChatCompletion completion = client.chat().completions().create(paramsBuilder.build());
+        recordUsage(budget, completion.usage());
 
         // Return content from first choice
-        return completion.choices().getFirst().message().content().orElse("");
+        String response = completion.choices().getFirst().message().content().orElse("");
+        cacheResponse(messages, response);
+        return response;
+    }
+
+    /**
+     * Same as {@link #generateResponse(Iterable, SessionBudget)}, but allowing up to 8k completion tokens, for
+     * long documents.
+     *
+     * @throws IllegalStateException if the response was cut off at that limit, rather than returning it
+     * truncated.
+     */
+    public String generateFullResponse(Iterable<Message> messages, SessionBudget budget) {
+        Optional<String> cached = cachedResponse(messages);
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+        OpenAIClient client = client();
+
+        ChatCompletionCreateParams.Builder paramsBuilder = ChatCompletionCreateParams.builder()
+                .model(this.model)
+                .maxCompletionTokens(2048*4);
+        addMessages(paramsBuilder, messages);
+
+        StartupProbe.firstRequest();
+        ChatCompletion completion = client.chat().completions().create(paramsBuilder.build());
+        recordUsage(budget, completion.usage());
+
+        ChatCompletion.Choice choice = completion.choices().getFirst();
+        if (ChatCompletion.Choice.FinishReason.LENGTH.equals(choice.finishReason())) {
+            throw new IllegalStateException("Response truncated at the limit of " + 2048*4 + " completion tokens");
+        }
+        String response = choice.message().content().orElse("");
+        cacheResponse(messages, response);
+        return response;
+    }
+
+    /**
+     * Streams the response to the provided messages, handing every content delta to {@code onToken} as it
+     * arrives.
+     *
+     * @return The complete response, once the stream has ended.
+     */
+    public String streamResponse(Iterable<Message> messages, SessionBudget budget, Consumer<String> onToken) {
+        Optional<String> cached = cachedResponse(messages);
+        if (cached.isPresent()) {
+            onToken.accept(cached.get());
+            return cached.get();
+        }
+        OpenAIClient client = client();
+
+        ChatCompletionCreateParams.Builder paramsBuilder = ChatCompletionCreateParams.builder()
+                .model(this.model)
+                .maxCompletionTokens(2048*4)
+                // The usage is only sent, in a final chunk, when asked for
+                .streamOptions(ChatCompletionStreamOptions.builder().includeUsage(true).build());
+        addMessages(paramsBuilder, messages);
+
+        StringBuilder response = new StringBuilder();
+        StartupProbe.firstRequest();
+        try (StreamResponse<ChatCompletionChunk> stream = client.chat().completions().createStreaming(paramsBuilder.build())) {
+            stream.stream().forEach(chunk -> {
+                recordUsage(budget, chunk.usage());
+                chunk.choices().forEach(choice -> choice.delta().content().ifPresent(token -> {
+                    response.append(token);
+                    onToken.accept(token);
+                }));
+            });
+        }
+        cacheResponse(messages, response.toString());
+        return response.toString();
+    }
+
+    /**
+     * Generates a response constrained to the JSON schema of {@code responseType} and binds it to an instance
+     * of it.
+     *
+     * The schema is derived from the class and sent as the provider-side structured output format, so the
+     * model cannot answer with free text or malformed JSON and callers don't have to re-parse fenced blocks
+     * or re-prompt.
+     *
+     * @param messages Message objects (a List or a Conversation) containing role and content.
+     * @param responseType The class (typically a record) the response is bound to.
+     * @return The response bound to {@code responseType}.
+     */
+    public <T> T generateResponse(Iterable<Message> messages, Class<T> responseType) {
+        OpenAIClient client = client();
+
+        ChatCompletionCreateParams.Builder paramsBuilder = ChatCompletionCreateParams.builder()
+                .model(this.model)
+                .maxCompletionTokens(2048*4);
+        addMessages(paramsBuilder, messages);
+
+        StructuredChatCompletionCreateParams<T> params = paramsBuilder.responseFormat(responseType).build();
+        StartupProbe.firstRequest();
+        return client.chat().completions().create(params).choices().stream()
+                .flatMap(choice -> choice.message().content().stream())
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("No " + responseType.getSimpleName() + " in the response"));
     }
 
     public String generateResponse(Prompt prompt) {
-        try {
-            // Initialize OpenAI client using environment variables
-            OpenAIClient client = OpenAIOkHttpClient.fromEnv();
+        return generateResponse(prompt, null);
+    }
 
-            List<Message> messages = prompt.getMessages();
+    /**
+     * Same as {@link #generateResponse(Prompt)}, charging the tokens used to the session budget.
+     */
+    public String generateResponse(Prompt prompt, SessionBudget budget) {
+        try {
+            OpenAIClient client = client();
 
             ChatCompletionCreateParams.Builder paramsBuilder = ChatCompletionCreateParams.builder()
                     .model(this.model)
                     .maxCompletionTokens(2048*4);
 
             // Add messages to the request
-            for (Message message : messages) {
-                if (message.getRole().equals("system")) {
-                    ChatCompletionSystemMessageParam systemMsg = ChatCompletionSystemMessageParam.builder()
-                            .content(message.getContent())
-                            .build();
-                    paramsBuilder.addMessage(systemMsg);
-                } else if (message.getRole().equals("user")) {
-                    ChatCompletionUserMessageParam userMsg = ChatCompletionUserMessageParam.builder()
-                            .content(message.getContent())
-                            .build();
-                    paramsBuilder.addMessage(userMsg);
-                } else {
-                    ChatCompletionAssistantMessageParam assistantMsg = ChatCompletionAssistantMessageParam.builder()
-                            .content(message.getContent())
-                            .build();
-                    paramsBuilder.addMessage(assistantMsg);
-                }
-            }
+            addMessages(paramsBuilder, prompt.getMessages());
 
             String result = null;
             List<Tool> tools = prompt.getTools();
             if(CollectionUtils.isEmpty(tools)) {
+                Optional<String> cached = cachedResponse(prompt.getMessages());
+                if (cached.isPresent()) {
+                    return cached.get();
+                }
+                StartupProbe.firstRequest();
                 ChatCompletion chatCompletion = client.chat().completions().create(paramsBuilder.build());
+                recordUsage(budget, chatCompletion.usage());
                 result = chatCompletion.choices().getFirst().message().content().orElse("");
+                cacheResponse(prompt.getMessages(), result);
             } else {
                 // Add the tools
                 List<ChatCompletionTool> chatCompletionTools = convertToolsToOpenAIFormat(tools);
                 paramsBuilder.tools(chatCompletionTools);
 
                 // Get completion with tools
+                StartupProbe.firstRequest();
                 ChatCompletion completion = client.chat().completions().create(paramsBuilder.build());
+                recordUsage(budget, completion.usage());
 
                 // Check if model used a tool
                 if (completion.choices().getFirst().message().toolCalls().isPresent()) {
@@ -175,7 +285,7 @@ public class LLM {
 
             log.error("Prompt details:");
             for (Message message : prompt.getMessages()) {
-                log.error("Message: " + message.getRole() + " - " + message.getContent());
+                log.error("Message: " + message.getRole().getValue() + " - " + message.getContent());
             }
 
             if (!prompt.getTools().isEmpty()) {
@@ -191,6 +301,54 @@ public class LLM {
         }
     }
 
+    private OpenAIClient client() {
+        OpenAIClient result = client;
+        if (result == null) {
+            synchronized (this) {
+                if (client == null) {
+                    // Initialize OpenAI client using environment variables
+                    client = OpenAIOkHttpClient.fromEnv();
+                }
+                result = client;
+            }
+        }
+        return result;
+    }
+
+    private Optional<String> cachedResponse(Iterable<Message> messages) {
+        SemanticCache cache = semanticCache;
+        return cache == null ? Optional.empty() : cache.lookup(messages);
+    }
+
+    private void cacheResponse(Iterable<Message> messages, String response) {
+        SemanticCache cache = semanticCache;
+        if (cache != null) {
+            cache.put(messages, response);
+        }
+    }
+
+    private void recordUsage(SessionBudget budget, Optional<CompletionUsage> usage) {
+        if (budget != null) {
+            usage.ifPresent(u -> budget.recordUsage(u.promptTokens(), u.completionTokens()));
+        }
+    }
+
+    private void addMessages(ChatCompletionCreateParams.Builder paramsBuilder, Iterable<Message> messages) {
+        for (Message message : messages) {
+            switch (message.getRole()) {
+                case SYSTEM -> paramsBuilder.addMessage(ChatCompletionSystemMessageParam.builder()
+                        .content(message.getContent())
+                        .build());
+                case USER -> paramsBuilder.addMessage(ChatCompletionUserMessageParam.builder()
+                        .content(message.getContent())
+                        .build());
+                case ASSISTANT -> paramsBuilder.addMessage(ChatCompletionAssistantMessageParam.builder()
+                        .content(message.getContent())
+                        .build());
+            }
+        }
+    }
+
     private List<ChatCompletionTool> convertToolsToOpenAIFormat(List<Tool> tools) {
         List<ChatCompletionTool> chatCompletionTools = new ArrayList<>();
 
@@ -0,0 +1,145 @@
+package dev.ankis.ai.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.*;
+import java.util.function.IntPredicate;
+
+/**
+ * Fixed-capacity approximate nearest-neighbour index over unit vectors, stored off-heap so that a large
+ * index adds nothing to the garbage collector's work.
+ *
+ * Vectors are bucketed by random-hyperplane (SimHash) signatures in several independent tables. A search
+ * compares the query against the vectors of its own bucket and of the buckets one bit away in every table,
+ * instead of against the whole index. A close neighbour that lands a few bits away in one table is very
+ * likely to be within one bit in another, so more tables of fewer bits trade a few more comparisons for
+ * much better recall. Once full, the oldest vector is overwritten.
+ */
+public class OffHeapVectorIndex {
+    private final int dimension;
+    private final int capacity;
+    private final FloatBuffer vectors;
+    // One set of hyperplanes, signature per slot and buckets per table
+    private final float[][][] hyperplanes;
+    private final int[][] signatures;
+    private final List<Map<Integer, Set<Integer>>> buckets = new ArrayList<>();
+    private int size;
+    private int next;
+
+    public OffHeapVectorIndex(int dimension, int capacity, int tables, int signatureBits) {
+        this.dimension = dimension;
+        this.capacity = capacity;
+        this.vectors = ByteBuffer.allocateDirect(Math.multiplyExact(Math.multiplyExact(dimension, capacity), Float.BYTES))
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        this.signatures = new int[tables][capacity];
+        this.hyperplanes = new float[tables][signatureBits][dimension];
+        // Fixed seed, the same vectors always land in the same buckets
+        Random random = new Random(42);
+        for (int table = 0; table < tables; table++) {
+            for (float[] hyperplane : hyperplanes[table]) {
+                for (int i = 0; i < dimension; i++) {
+                    hyperplane[i] = (float) random.nextGaussian();
+                }
+            }
+            buckets.add(new HashMap<>());
+        }
+    }
+
+    /**
+     * Adds the vector, evicting the oldest one if the index is full.
+     *
+     * @return the slot the vector was stored in.
+     */
+    public int add(float[] vector) {
+        int slot = next;
+        next = (next + 1) % capacity;
+        if (size < capacity) {
+            size++;
+        } else {
+            for (int table = 0; table < buckets.size(); table++) {
+                Map<Integer, Set<Integer>> tableBuckets = buckets.get(table);
+                Set<Integer> bucket = tableBuckets.get(signatures[table][slot]);
+                bucket.remove(slot);
+                if (bucket.isEmpty()) {
+                    tableBuckets.remove(signatures[table][slot]);
+                }
+            }
+        }
+        vectors.put(slot * dimension, vector);
+        for (int table = 0; table < buckets.size(); table++) {
+            int signature = signature(table, vector);
+            signatures[table][slot] = signature;
+            buckets.get(table).computeIfAbsent(signature, s -> new HashSet<>()).add(slot);
+        }
+        return slot;
+    }
+
+    /**
+     * @return the slot of the most similar accepted vector with a cosine similarity of at least
+     * {@code minSimilarity}, or -1 if there is none.
+     */
+    public int nearest(float[] query, double minSimilarity, IntPredicate accept) {
+        // A slot is usually a candidate in several tables, it is only compared once
+        BitSet compared = new BitSet(size);
+        int best = -1;
+        double bestSimilarity = minSimilarity;
+        for (int table = 0; table < buckets.size(); table++) {
+            int signature = signature(table, query);
+            for (int bit = -1; bit < hyperplanes[table].length; bit++) {
+                Set<Integer> bucket = buckets.get(table).get(bit < 0 ? signature : signature ^ (1 << bit));
+                if (bucket == null) {
+                    continue;
+                }
+                for (int slot : bucket) {
+                    if (compared.get(slot)) {
+                        continue;
+                    }
+                    compared.set(slot);
+                    double similarity = dot(query, slot);
+                    if (similarity >= bestSimilarity && accept.test(slot)) {
+                        best = slot;
+                        bestSimilarity = similarity;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return the slots of the bucket the vector falls into in the given table, in no particular order.
+     */
+    Set<Integer> bucket(int table, float[] vector) {
+        return Set.copyOf(buckets.get(table).getOrDefault(signature(table, vector), Set.of()));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private double dot(float[] query, int slot) {
+        int offset = slot * dimension;
+        double dot = 0;
+        for (int i = 0; i < dimension; i++) {
+            dot += query[i] * vectors.get(offset + i);
+        }
+        return dot;
+    }
+
+    private int signature(int table, float[] vector) {
+        int signature = 0;
+        for (int bit = 0; bit < hyperplanes[table].length; bit++) {
+            float[] hyperplane = hyperplanes[table][bit];
+            double dot = 0;
+            for (int i = 0; i < dimension; i++) {
+                dot += hyperplane[i] * vector[i];
+            }
+            if (dot >= 0) {
+                signature |= 1 << bit;
+            }
+        }
+        return signature;
+    }
+}
@@ -0,0 +1,140 @@
+package dev.ankis.ai.util;
+
+import dev.ankis.ai.models.Conversation;
+import dev.ankis.ai.models.Message;
+import dev.ankis.ai.models.Role;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Serves cached responses for user messages that mean the same as one answered before, even if worded
+ * differently.
+ *
+ * The last user message is embedded and looked up in an {@link OffHeapVectorIndex}; a cached response is
+ * only returned above the similarity threshold and when everything before that message (system prompt and
+ * history) is exactly the same, so different agents or conversations never share answers. The context is
+ * compared through its SHA-256 digest, and callers serving several tenants pass a scope (e.g. the tenant id)
+ * that is part of the digest, so tenants never share answers either.
+ */
+@Slf4j
+public class SemanticCache {
+    private final Embedder embedder;
+    private final double minSimilarity;
+    private final OffHeapVectorIndex index;
+    private final byte[][] contexts;
+    private final String[] responses;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public SemanticCache(Embedder embedder, double minSimilarity, int capacity) {
+        this.embedder = embedder;
+        this.minSimilarity = minSimilarity;
+        // 8 tables of 10 bits find close to every neighbour above 0.85, comparing against a tenth of the index
+        this.index = new OffHeapVectorIndex(embedder.dimension(), capacity, 8, 10);
+        this.contexts = new byte[capacity][];
+        this.responses = new String[capacity];
+    }
+
+    public Optional<String> lookup(Iterable<Message> messages) {
+        return lookup("", messages);
+    }
+
+    /**
+     * Looks up a response cached under the same scope.
+     */
+    public Optional<String> lookup(String scope, Iterable<Message> messages) {
+        List<Message> list = toList(messages);
+        if (!cacheable(list)) {
+            return Optional.empty();
+        }
+        byte[] context = contextDigest(scope, list);
+        float[] query = embedder.embed(list.getLast().getContent());
+        lock.readLock().lock();
+        try {
+            int slot = index.nearest(query, minSimilarity, candidate -> Arrays.equals(contexts[candidate], context));
+            if (slot < 0) {
+                return Optional.empty();
+            }
+            log.debug("Semantic cache hit for: {}", list.getLast().getContent());
+            return Optional.of(responses[slot]);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void put(Iterable<Message> messages, String response) {
+        put("", messages, response);
+    }
+
+    public void put(String scope, Iterable<Message> messages, String response) {
+        List<Message> list = toList(messages);
+        if (!cacheable(list) || response == null || response.isEmpty()) {
+            return;
+        }
+        byte[] context = contextDigest(scope, list);
+        float[] vector = embedder.embed(list.getLast().getContent());
+        lock.writeLock().lock();
+        try {
+            int slot = index.add(vector);
+            contexts[slot] = context;
+            responses[slot] = response;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static boolean cacheable(List<Message> messages) {
+        return !messages.isEmpty() && messages.getLast().getRole() == Role.USER
+                && messages.getLast().getContent() != null;
+    }
+
+    /**
+     * Digest of the scope and of every message before the last one. Every part is length-prefixed, so
+     * different contexts can't produce the same input to the digest.
+     */
+    private static byte[] contextDigest(String scope, List<Message> messages) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        update(digest, scope);
+        for (Message message : messages.subList(0, messages.size() - 1)) {
+            digest.update((byte) message.getRole().ordinal());
+            update(digest, message.getContent());
+        }
+        return digest.digest();
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        if (value == null) {
+            digest.update(ByteBuffer.allocate(4).putInt(-1).array());
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        digest.update(ByteBuffer.allocate(4).putInt(bytes.length).array());
+        digest.update(bytes);
+    }
+
+    private static List<Message> toList(Iterable<Message> messages) {
+        if (messages instanceof Conversation conversation) {
+            return conversation.toList();
+        }
+        if (messages instanceof List<Message> list) {
+            return list;
+        }
+        List<Message> list = new ArrayList<>();
+        messages.forEach(list::add);
+        return list;
+    }
+}
@@ -0,0 +1,116 @@
+package dev.ankis.ai.util;
+
+import dev.ankis.ai.models.Action;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Guardrails for one agent session: maximum number of turns, wall-clock deadline, total tokens and cost.
+ *
+ * The agent loop asks {@link #tryStartTurn()} before every turn and stops once it returns false. Actions are
+ * recorded too, so a model stuck repeating the very same tool call is stopped as well instead of running
+ * until one of the other limits is hit.
+ *
+ * Budgets can be shared by several threads (e.g. the workers of a coordinator), so all the mutable state is
+ * only read and written under the budget's lock.
+ */
+public class SessionBudget {
+    // Pricing of the default model (gpt-4.1-mini), in USD per token
+    private static final double INPUT_COST_PER_TOKEN = 0.40 / 1_000_000;
+    private static final double OUTPUT_COST_PER_TOKEN = 1.60 / 1_000_000;
+
+    private final int maxTurns;
+    private final Instant deadline;
+    private final long maxTotalTokens;
+    private final double maxCostUsd;
+    private final int maxRepeatedActions;
+
+    private int turns;
+    private long promptTokens;
+    private long completionTokens;
+    private Action lastAction;
+    private int repeatedActions;
+
+    /**
+     * @param maxDuration wall-clock limit from now, or null for none (e.g. interactive sessions, which are
+     * bounded by an idle timeout instead).
+     */
+    public SessionBudget(int maxTurns, Duration maxDuration, long maxTotalTokens, double maxCostUsd,
+                         int maxRepeatedActions) {
+        this.maxTurns = maxTurns;
+        this.deadline = maxDuration == null ? null : Instant.now().plus(maxDuration);
+        this.maxTotalTokens = maxTotalTokens;
+        this.maxCostUsd = maxCostUsd;
+        this.maxRepeatedActions = maxRepeatedActions;
+    }
+
+    /**
+     * Budget configured from the {@code agent.budget.*} system properties.
+     */
+    public static SessionBudget fromSystemProperties() {
+        return new SessionBudget(
+                Integer.getInteger("agent.budget.max-turns", 50),
+                Duration.ofSeconds(Long.getLong("agent.budget.max-duration-seconds", 600)),
+                Long.getLong("agent.budget.max-tokens", 1_000_000),
+                Double.parseDouble(System.getProperty("agent.budget.max-cost-usd", "1.0")),
+                Integer.getInteger("agent.budget.max-repeated-actions", 3));
+    }
+
+    /**
+     * @return true if the session may take another turn, which is then counted.
+     */
+    public synchronized boolean tryStartTurn() {
+        if (getExhaustedReason().isPresent()) {
+            return false;
+        }
+        turns++;
+        return true;
+    }
+
+    public synchronized Optional<String> getExhaustedReason() {
+        if (turns >= maxTurns) {
+            return Optional.of("reached the maximum of " + maxTurns + " turns");
+        }
+        if (deadline != null && Instant.now().isAfter(deadline)) {
+            return Optional.of("passed the deadline of " + deadline);
+        }
+        if (getTotalTokens() >= maxTotalTokens) {
+            return Optional.of("used " + getTotalTokens() + " of " + maxTotalTokens + " tokens");
+        }
+        if (getCostUsd() >= maxCostUsd) {
+            return Optional.of(String.format("spent $%.4f of $%.2f", getCostUsd(), maxCostUsd));
+        }
+        if (repeatedActions >= maxRepeatedActions) {
+            return Optional.of("repeated " + lastAction.getTool() + " with the same arguments " + repeatedActions + " times");
+        }
+        return Optional.empty();
+    }
+
+    public synchronized void recordUsage(long promptTokens, long completionTokens) {
+        this.promptTokens += promptTokens;
+        this.completionTokens += completionTokens;
+    }
+
+    /**
+     * Records the action the model asked for.
+     *
+     * @return how many times in a row this exact action (tool and arguments) has now been asked for, 1 if it
+     * differs from the previous one.
+     */
+    public synchronized int recordAction(Action action) {
+        repeatedActions = Objects.equals(action, lastAction) ? repeatedActions + 1 : 1;
+        lastAction = action;
+        return repeatedActions;
+    }
+
+    public synchronized long getTotalTokens() {
+        return promptTokens + completionTokens;
+    }
+
+    public synchronized double getCostUsd() {
+        return promptTokens * INPUT_COST_PER_TOKEN + completionTokens * OUTPUT_COST_PER_TOKEN;
+    }
+}
@@ -0,0 +1,30 @@
+package dev.ankis.ai.util;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Records the time from JVM start to the first model request, the startup cost a short-lived agent pays
+ * before doing any useful work.
+ *
+ * With {@code -Dagent.startup.exit-on-first-request=true} the JVM exits right there instead of sending the
+ * request, which is how the CDS training run and the startup benchmark drive the agent entry points offline.
+ */
+@Slf4j
+public final class StartupProbe {
+    private static final AtomicBoolean recorded = new AtomicBoolean();
+
+    private StartupProbe() {
+    }
+
+    public static void firstRequest() {
+        if (recorded.compareAndSet(false, true)) {
+            log.info("time-to-first-request={}ms", ManagementFactory.getRuntimeMXBean().getUptime());
+            if (Boolean.getBoolean("agent.startup.exit-on-first-request")) {
+                System.exit(0);
+            }
+        }
+    }
+}
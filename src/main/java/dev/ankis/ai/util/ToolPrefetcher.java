@@ -0,0 +1,157 @@
+package dev.ankis.ai.util;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Speculatively reads files the agent is likely to ask for next, so that the I/O overlaps with the time
+ * spent waiting on the model.
+ *
+ * Once a listing tool has returned the candidate files, they are queued here and read in the background,
+ * keeping at most {@code maxEntries} contents in memory. Every {@link #take(Path)} frees a slot and
+ * schedules the next queued file. A prefetcher belongs to a single session, sessions running concurrently
+ * each use their own.
+ *
+ * The directories of the queued files are watched by the {@link ToolResultCache}, even once its listing is
+ * evicted, and contents are dropped on its change events, so a file changed after it was prefetched is read
+ * again rather than served stale.
+ */
+@Slf4j
+public class ToolPrefetcher implements AutoCloseable {
+    private final int maxEntries;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Map<Path, CompletableFuture<String>> prefetched = new LinkedHashMap<>();
+    private final Deque<Path> pending = new ArrayDeque<>();
+    private final ToolResultCache changes;
+    private final Consumer<Path> onChange = this::invalidate;
+    private Set<Path> watchedDirs = Set.of();
+
+    public ToolPrefetcher(int maxEntries, ToolResultCache changes) {
+        this.maxEntries = maxEntries;
+        this.changes = changes;
+        changes.addChangeListener(onChange);
+    }
+
+    /**
+     * Queues the given files for prefetching, in order. Files from a previous call that were never taken are
+     * dropped, the session has moved on to another listing and they would otherwise hold on to their slot.
+     */
+    public synchronized void prefetch(Collection<Path> paths) {
+        Map<Path, CompletableFuture<String>> previous = new HashMap<>(prefetched);
+        prefetched.clear();
+        pending.clear();
+        Set<Path> dirs = watch(paths);
+        for (Path path : paths) {
+            Path key = normalize(path);
+            if (!dirs.contains(key.getParent())) {
+                // Its changes would go unnoticed
+                continue;
+            }
+            if (previous.containsKey(key) && prefetched.size() < maxEntries) {
+                prefetched.put(key, previous.get(key));
+            } else if (!pending.contains(key)) {
+                pending.addLast(key);
+            }
+        }
+        fill();
+    }
+
+    /**
+     * Returns the prefetched content of the file and evicts it, or an empty optional if the file was not
+     * prefetched or could not be read in the background.
+     */
+    public Optional<String> take(Path path) {
+        CompletableFuture<String> future;
+        synchronized (this) {
+            Path key = normalize(path);
+            future = prefetched.remove(key);
+            pending.remove(key);
+            fill();
+        }
+        if (future == null) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(future.join());
+        } catch (CompletionException e) {
+            log.debug("Prefetch of {} failed, falling back to a direct read", path, e.getCause());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Drops the prefetched content of the path, or of everything under it, and requeues it so it is read
+     * again.
+     */
+    public synchronized void invalidate(Path changed) {
+        Path key = normalize(changed);
+        List<Path> stale = prefetched.keySet().stream().filter(path -> path.startsWith(key)).toList();
+        for (Path path : stale) {
+            prefetched.remove(path).cancel(false);
+            pending.addFirst(path);
+        }
+        fill();
+    }
+
+    @Override
+    public void close() {
+        changes.removeChangeListener(onChange);
+        synchronized (this) {
+            watchedDirs.forEach(changes::unwatchDirectory);
+            watchedDirs = Set.of();
+        }
+        executor.shutdownNow();
+    }
+
+    /**
+     * Watches the directories of the given files instead of the previous ones.
+     *
+     * @return the directories that are watched.
+     */
+    private Set<Path> watch(Collection<Path> paths) {
+        Set<Path> dirs = new HashSet<>();
+        for (Path path : paths) {
+            Path dir = normalize(path).getParent();
+            if (dir != null && !dirs.contains(dir)) {
+                try {
+                    changes.watchDirectory(dir);
+                    dirs.add(dir);
+                } catch (IOException e) {
+                    log.warn("Unable to watch {} for changes, not prefetching its files", dir, e);
+                }
+            }
+        }
+        watchedDirs.forEach(changes::unwatchDirectory);
+        watchedDirs = dirs;
+        return dirs;
+    }
+
+    private void fill() {
+        while (prefetched.size() < maxEntries && !pending.isEmpty()) {
+            Path path = pending.pollFirst();
+            prefetched.put(path, CompletableFuture.supplyAsync(() -> read(path), executor));
+        }
+    }
+
+    private static String read(Path path) {
+        try {
+            return Files.readString(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Path normalize(Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+}
@@ -0,0 +1,339 @@
+package dev.ankis.ai.util;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Caches the results of pure tools, keyed on the tool name and its arguments.
+ *
+ * A pure tool declares the files or directories its result depends on. Those are watched with a
+ * {@link WatchService} and any change underneath them evicts the affected entries, so repeated reads and
+ * listings are served from memory until something on disk actually changes. Impure tools (e.g. the ones
+ * writing files) are never wrapped.
+ *
+ * The cache holds at most {@code maxBytes} of results (estimated from their length) and evicts the least
+ * recently used ones beyond that. A directory is only watched while a cached result (or a
+ * {@link #watchDirectory(Path)} caller) depends on it, so evicted entries release their watches too.
+ *
+ * Note that some platforms (macOS) only offer a polling watch service, so invalidation may lag by a few seconds.
+ */
+@Slf4j
+public class ToolResultCache {
+    private final ObjectMapper mapper = new ObjectMapper().configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+    private final long maxBytes;
+    // The fields below are guarded by this
+    private final LinkedHashMap<String, Entry> results = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    // Only for the keys being computed, an eviction during the computation means its result is stale
+    private final Map<String, Computation> computations = new HashMap<>();
+    private final Map<Path, Dependents> dependents = new HashMap<>();
+    private final Map<Path, WatchKey> watchKeys = new HashMap<>();
+    private final Map<Path, Integer> watchUsers = new HashMap<>();
+    private final Map<WatchKey, Path> watchedDirs = new ConcurrentHashMap<>();
+    private final List<Consumer<Path>> changeListeners = new CopyOnWriteArrayList<>();
+    private WatchService watchService;
+
+    public ToolResultCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Cache bounded by the {@code agent.tool-cache.max-bytes} system property, 32 MB by default.
+     */
+    public static ToolResultCache fromSystemProperties() {
+        return new ToolResultCache(Long.getLong("agent.tool-cache.max-bytes", 32L * 1024 * 1024));
+    }
+
+    /**
+     * Wraps the function of a pure tool so that its results are cached until one of the paths returned by
+     * {@code dependsOn} changes.
+     */
+    public Function<Map<String, Object>, Object> cached(String toolName,
+                                                        Function<Map<String, Object>, List<Path>> dependsOn,
+                                                        Function<Map<String, Object>, Object> function) {
+        return args -> {
+            String key = cacheKey(toolName, args);
+            Computation computation;
+            long generation;
+            synchronized (this) {
+                Entry cached = results.get(key);
+                if (cached != null) {
+                    log.debug("Serving {} from the tool result cache", key);
+                    return cached.result();
+                }
+                computation = computations.computeIfAbsent(key, k -> new Computation());
+                computation.running++;
+                generation = computation.generation;
+            }
+            List<Path> paths = new ArrayList<>();
+            boolean watched = false;
+            Object result = null;
+            try {
+                // Watch before computing so that a change during the call is seen, and bumps the generation
+                watched = watch(key, dependsOn.apply(args), paths);
+                result = function.apply(args);
+                return result;
+            } finally {
+                finish(key, computation, generation, watched ? result : null, paths);
+            }
+        };
+    }
+
+    /**
+     * Notifies the listener of every change seen under the watched directories, with the changed path; a
+     * directory means anything under it may have changed.
+     */
+    public void addChangeListener(Consumer<Path> listener) {
+        changeListeners.add(listener);
+    }
+
+    public void removeChangeListener(Consumer<Path> listener) {
+        changeListeners.remove(listener);
+    }
+
+    /**
+     * Keeps the directory watched, and its changes reported to the listeners, until
+     * {@link #unwatchDirectory(Path)} is called as many times.
+     */
+    public synchronized void watchDirectory(Path dir) throws IOException {
+        acquireWatch(dir.toAbsolutePath().normalize());
+    }
+
+    public synchronized void unwatchDirectory(Path dir) {
+        releaseWatch(dir.toAbsolutePath().normalize());
+    }
+
+    public synchronized void invalidateAll() {
+        Set<String> keys = new HashSet<>(results.keySet());
+        keys.addAll(computations.keySet());
+        keys.forEach(this::evict);
+    }
+
+    /**
+     * @return the estimated size of the cached results, in bytes.
+     */
+    public synchronized long size() {
+        return bytes;
+    }
+
+    synchronized Set<Path> watchedDirectories() {
+        return Set.copyOf(watchKeys.keySet());
+    }
+
+    private String cacheKey(String toolName, Map<String, Object> args) {
+        try {
+            return toolName + ":" + mapper.writeValueAsString(args == null ? Map.of() : args);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private synchronized boolean watch(String key, List<Path> paths, List<Path> watched) {
+        try {
+            for (Path path : paths) {
+                Path normalized = path.toAbsolutePath().normalize();
+                if (!Files.exists(normalized)) {
+                    return false;
+                }
+                Dependents pathDependents = dependents.get(normalized);
+                if (pathDependents == null) {
+                    Path dir = Files.isDirectory(normalized) ? normalized : normalized.getParent();
+                    acquireWatch(dir);
+                    pathDependents = new Dependents(dir);
+                    dependents.put(normalized, pathDependents);
+                }
+                pathDependents.keys.add(key);
+                watched.add(normalized);
+            }
+            return true;
+        } catch (IOException e) {
+            log.warn("Unable to watch {} for changes, not caching {}", paths, key, e);
+            return false;
+        }
+    }
+
+    /**
+     * Caches the result unless it was invalidated while being computed, and releases the paths of a result
+     * that is not cached.
+     */
+    private synchronized void finish(String key, Computation computation, long generation, Object result,
+                                     List<Path> paths) {
+        if (--computation.running == 0) {
+            computations.remove(key);
+        }
+        long resultBytes = result == null ? 0 : estimateBytes(result);
+        if (result != null && computation.generation == generation && resultBytes <= maxBytes) {
+            Entry previous = results.put(key, new Entry(result, List.copyOf(paths), resultBytes));
+            if (previous != null) {
+                bytes -= previous.bytes();
+            }
+            bytes += resultBytes;
+            trim();
+        } else if (!results.containsKey(key) && !computations.containsKey(key)) {
+            release(key, paths);
+        }
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<String, Entry>> eldest = results.entrySet().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<String, Entry> entry = eldest.next();
+            eldest.remove();
+            bytes -= entry.getValue().bytes();
+            if (!computations.containsKey(entry.getKey())) {
+                release(entry.getKey(), entry.getValue().paths());
+            }
+            log.debug("Evicted {} from the tool result cache, {} bytes left", entry.getKey(), bytes);
+        }
+    }
+
+    private void acquireWatch(Path dir) throws IOException {
+        if (!watchKeys.containsKey(dir)) {
+            if (watchService == null) {
+                watchService = FileSystems.getDefault().newWatchService();
+                Thread.ofPlatform().daemon().name("tool-cache-watcher").start(this::processEvents);
+            }
+            WatchKey watchKey = dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+            watchKeys.put(dir, watchKey);
+            watchedDirs.put(watchKey, dir);
+        }
+        watchUsers.merge(dir, 1, Integer::sum);
+    }
+
+    private void releaseWatch(Path dir) {
+        Integer users = watchUsers.computeIfPresent(dir, (d, count) -> count == 1 ? null : count - 1);
+        if (users == null) {
+            WatchKey watchKey = watchKeys.remove(dir);
+            if (watchKey != null) {
+                watchedDirs.remove(watchKey);
+                watchKey.cancel();
+            }
+        }
+    }
+
+    private void processEvents() {
+        while (true) {
+            WatchKey watchKey;
+            try {
+                watchKey = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            Path dir = watchedDirs.get(watchKey);
+            if (dir != null) {
+                for (WatchEvent<?> event : watchKey.pollEvents()) {
+                    if (event.kind() == OVERFLOW) {
+                        invalidateUnder(dir);
+                        notifyListeners(dir);
+                    } else {
+                        Path changed = dir.resolve((Path) event.context());
+                        invalidate(changed);
+                        notifyListeners(changed);
+                    }
+                    // Any change to an entry also changes the listing of its directory
+                    invalidate(dir);
+                }
+            }
+            if (!watchKey.reset() && dir != null) {
+                lostWatch(watchKey, dir);
+                invalidateUnder(dir);
+                notifyListeners(dir);
+            }
+        }
+    }
+
+    private synchronized void lostWatch(WatchKey watchKey, Path dir) {
+        // Deleted or otherwise no longer watchable, the next result depending on it registers it again
+        watchedDirs.remove(watchKey);
+        watchKeys.remove(dir, watchKey);
+    }
+
+    private synchronized void invalidate(Path path) {
+        Dependents pathDependents = dependents.get(path);
+        if (pathDependents != null) {
+            log.debug("{} changed, evicting {}", path, pathDependents.keys);
+            List.copyOf(pathDependents.keys).forEach(this::evict);
+        }
+    }
+
+    private void notifyListeners(Path changed) {
+        for (Consumer<Path> listener : changeListeners) {
+            listener.accept(changed);
+        }
+    }
+
+    private void evict(String key) {
+        Computation computation = computations.get(key);
+        if (computation != null) {
+            // Still depends on its paths, the computation releases them when it finishes
+            computation.generation++;
+        }
+        Entry entry = results.remove(key);
+        if (entry != null) {
+            bytes -= entry.bytes();
+            if (computation == null) {
+                release(key, entry.paths());
+            }
+        }
+    }
+
+    private void release(String key, List<Path> paths) {
+        for (Path path : paths) {
+            Dependents pathDependents = dependents.get(path);
+            if (pathDependents != null && pathDependents.keys.remove(key) && pathDependents.keys.isEmpty()) {
+                dependents.remove(path);
+                releaseWatch(pathDependents.dir);
+            }
+        }
+    }
+
+    private synchronized void invalidateUnder(Path dir) {
+        dependents.keySet().stream()
+                .filter(path -> path.startsWith(dir))
+                .toList()
+                .forEach(this::invalidate);
+    }
+
+    private static long estimateBytes(Object result) {
+        if (result instanceof CharSequence text) {
+            return 2L * text.length();
+        }
+        if (result instanceof Collection<?> values) {
+            long total = 0;
+            for (Object value : values) {
+                total += estimateBytes(value);
+            }
+            return total;
+        }
+        return 16;
+    }
+
+    private record Entry(Object result, List<Path> paths, long bytes) {
+    }
+
+    private static final class Computation {
+        int running;
+        long generation;
+    }
+
+    private static final class Dependents {
+        final Path dir;
+        final Set<String> keys = new HashSet<>();
+
+        Dependents(Path dir) {
+            this.dir = dir;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package dev.ankis.ai.util;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+/**
+ * Declarative multi-step prompt pipeline.
+ *
+ * Every step names its inputs, which are either the outputs of previously declared steps or the initial
+ * inputs passed to {@link #run(Map)}. A step starts as soon as all of its inputs are available, so steps
+ * that do not depend on each other run in parallel. A failing step is retried on its own, and the output
+ * of every successful step is cached on its inputs, so running the same workflow again (until it is closed)
+ * only redoes the steps that failed or whose inputs changed.
+ */
+@Slf4j
+public class Workflow implements AutoCloseable {
+    private static final int DEFAULT_MAX_ATTEMPTS = 3;
+    private static final long RETRY_BACKOFF_MILLIS = 500;
+
+    private final Map<String, Step> steps = new LinkedHashMap<>();
+    // Keyed on the step name and its input values
+    private final Map<List<Object>, String> cache = new ConcurrentHashMap<>();
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    public Workflow step(String name, List<String> inputs, Function<Map<String, String>, String> function) {
+        return step(name, inputs, DEFAULT_MAX_ATTEMPTS, function);
+    }
+
+    public Workflow step(String name, List<String> inputs, int maxAttempts,
+                         Function<Map<String, String>, String> function) {
+        if (steps.containsKey(name)) {
+            throw new IllegalArgumentException("Step already declared: " + name);
+        }
+        steps.put(name, new Step(name, List.copyOf(inputs), maxAttempts, function));
+        return this;
+    }
+
+    /**
+     * Runs all the steps and returns the output of every step by name.
+     *
+     * @throws CompletionException if a step still fails after its retries; the steps not depending on it
+     * have completed (and are cached) by then.
+     */
+    public Map<String, String> run(Map<String, String> initialInputs) {
+        Map<String, CompletableFuture<String>> outputs = new LinkedHashMap<>();
+        initialInputs.forEach((name, value) -> outputs.put(name, CompletableFuture.completedFuture(value)));
+
+        for (Step step : steps.values()) {
+            if (outputs.containsKey(step.name())) {
+                throw new IllegalArgumentException("Initial input clashes with step: " + step.name());
+            }
+            List<CompletableFuture<String>> inputs = step.inputs().stream()
+                    .map(input -> {
+                        CompletableFuture<String> output = outputs.get(input);
+                        if (output == null) {
+                            // Inputs must be declared first, which also rules out cycles
+                            throw new IllegalArgumentException("Step " + step.name() + " depends on unknown or later step: " + input);
+                        }
+                        return output;
+                    })
+                    .toList();
+            outputs.put(step.name(), CompletableFuture.allOf(inputs.toArray(CompletableFuture[]::new))
+                    .thenApplyAsync(ignored -> {
+                        Map<String, String> values = new TreeMap<>();
+                        for (int i = 0; i < inputs.size(); i++) {
+                            values.put(step.inputs().get(i), inputs.get(i).join());
+                        }
+                        return execute(step, values);
+                    }, executor));
+        }
+
+        CompletableFuture.allOf(outputs.values().toArray(CompletableFuture[]::new)).exceptionally(e -> null).join();
+        Map<String, String> results = new LinkedHashMap<>();
+        for (String name : steps.keySet()) {
+            results.put(name, outputs.get(name).join());
+        }
+        return results;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    private String execute(Step step, Map<String, String> inputs) {
+        List<Object> cacheKey = List.of(step.name(), Map.copyOf(inputs));
+        String cached = cache.get(cacheKey);
+        if (cached != null) {
+            log.info("Step {} served from cache", step.name());
+            return cached;
+        }
+        for (int attempt = 1; ; attempt++) {
+            try {
+                log.info("Running step {} (attempt {}/{})", step.name(), attempt, step.maxAttempts());
+                String output = step.function().apply(inputs);
+                cache.put(cacheKey, output);
+                return output;
+            } catch (RuntimeException e) {
+                if (attempt >= step.maxAttempts()) {
+                    throw new RuntimeException("Step " + step.name() + " failed after " + attempt + " attempts", e);
+                }
+                log.warn("Step {} failed, retrying: {}", step.name(), e.getMessage());
+                try {
+                    Thread.sleep(RETRY_BACKOFF_MILLIS * attempt);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while retrying step " + step.name(), ie);
+                }
+            }
+        }
+    }
+
+    private record Step(String name, List<String> inputs, int maxAttempts,
+                        Function<Map<String, String>, String> function) {
+    }
+}
@@ -0,0 +1,198 @@
+package dev.ankis.ai.load;
+
+import com.openai.client.OpenAIClient;
+import com.openai.client.okhttp.OpenAIOkHttpClient;
+import dev.ankis.ai.complex.agents.models.ProjectDocumentAgent;
+import dev.ankis.ai.intermediate.agents.FileAgent;
+import dev.ankis.ai.models.Message;
+import dev.ankis.ai.models.Prompt;
+import dev.ankis.ai.util.LLM;
+import dev.ankis.ai.util.SessionBudget;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Drives concurrent simulated {@link FileAgent} and {@link ProjectDocumentAgent} sessions against a
+ * {@link StubLlmServer}, fully offline, and reports throughput, turn latency percentiles, heap and thread
+ * usage over time.
+ *
+ * Configured with the {@code agent.load.*} system properties, see {@link LoadConfig#fromSystemProperties()}.
+ */
+@Slf4j
+public class AgentLoadHarness {
+    private final LoadConfig config;
+    private final Queue<Long> turnLatencies = new ConcurrentLinkedQueue<>();
+    private final LongAdder turns = new LongAdder();
+    private final AtomicInteger activeSessions = new AtomicInteger();
+    private final AtomicInteger failedSessions = new AtomicInteger();
+    private final List<Sample> samples = Collections.synchronizedList(new ArrayList<>());
+
+    public AgentLoadHarness(LoadConfig config) {
+        this.config = config;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new AgentLoadHarness(LoadConfig.fromSystemProperties()).run();
+    }
+
+    public LoadReport run() throws IOException, InterruptedException {
+        if (System.getProperty("agent.checkpoint.dir") == null) {
+            // Must be set before ProjectDocumentAgent is initialized
+            System.setProperty("agent.checkpoint.dir", Files.createTempDirectory("agent-load-checkpoints").toString());
+        }
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long start = System.nanoTime();
+
+        try (StubLlmServer stub = new StubLlmServer(config.stubLatency(), config.stubJitter(), config.failureRate(), config.sourceDir());
+             ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+             ExecutorService sessions = Executors.newVirtualThreadPerTaskExecutor()) {
+            OpenAIClient client = OpenAIOkHttpClient.builder()
+                    .baseUrl(stub.baseUrl())
+                    .apiKey("stub")
+                    .maxRetries(config.maxRetries())
+                    .build();
+            sampler.scheduleAtFixedRate(() -> samples.add(new Sample(
+                    Duration.ofNanos(System.nanoTime() - start).toMillis(),
+                    memory.getHeapMemoryUsage().getUsed(),
+                    threads.getThreadCount(),
+                    activeSessions.get(),
+                    turns.sum())), 0, config.sampleInterval().toMillis(), TimeUnit.MILLISECONDS);
+
+            Semaphore concurrency = new Semaphore(config.concurrency());
+            for (int i = 0; i < config.sessions(); i++) {
+                boolean documentSession = i < config.sessions() * config.projectDocumentShare();
+                String sessionId = "load-" + UUID.randomUUID();
+                sessions.execute(() -> runSession(client, concurrency, documentSession, sessionId));
+            }
+            sessions.shutdown();
+            sessions.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+
+        LoadReport report = report(Duration.ofNanos(System.nanoTime() - start));
+        report.print();
+        return report;
+    }
+
+    private void runSession(OpenAIClient client, Semaphore concurrency, boolean documentSession, String sessionId) {
+        concurrency.acquireUninterruptibly();
+        activeSessions.incrementAndGet();
+        try {
+            TimedLLM llm = new TimedLLM(client);
+            if (documentSession) {
+                ProjectDocumentAgent.run(llm, sessionId);
+            } else {
+                FileAgent.run(llm, () -> "List the files and read the pom.xml");
+            }
+            llm.endSession();
+        } catch (Exception e) {
+            log.debug("Session {} failed", sessionId, e);
+            failedSessions.incrementAndGet();
+        } finally {
+            activeSessions.decrementAndGet();
+            concurrency.release();
+        }
+    }
+
+    private LoadReport report(Duration elapsed) {
+        long[] latencies = turnLatencies.stream().mapToLong(Long::longValue).sorted().toArray();
+        return new LoadReport(config.sessions(), failedSessions.get(), turns.sum(), elapsed,
+                turns.sum() / Math.max(elapsed.toMillis() / 1000.0, 0.001),
+                percentileMillis(latencies, 0.50), percentileMillis(latencies, 0.99), List.copyOf(samples));
+    }
+
+    private static double percentileMillis(long[] sortedNanos, double percentile) {
+        if (sortedNanos.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile * sortedNanos.length) - 1;
+        return sortedNanos[Math.max(index, 0)] / 1_000_000.0;
+    }
+
+    /**
+     * Records the latency of every turn of a session, i.e. the time from one model call to the next, which
+     * covers the model round trip and the tool execution.
+     */
+    private class TimedLLM extends LLM {
+        private long turnStart;
+
+        private TimedLLM(OpenAIClient client) {
+            super(client);
+        }
+
+        @Override
+        public String generateResponse(Prompt prompt, SessionBudget budget) {
+            markTurn();
+            return super.generateResponse(prompt, budget);
+        }
+
+        @Override
+        public String generateResponse(Iterable<Message> messages, SessionBudget budget) {
+            markTurn();
+            return super.generateResponse(messages, budget);
+        }
+
+        private void endSession() {
+            markTurn();
+        }
+
+        private void markTurn() {
+            long now = System.nanoTime();
+            if (turnStart != 0) {
+                turnLatencies.add(now - turnStart);
+                turns.increment();
+            }
+            turnStart = now;
+        }
+    }
+
+    public record LoadConfig(int sessions, int concurrency, double projectDocumentShare, Duration stubLatency,
+                             Duration stubJitter, double failureRate, int maxRetries, Duration sampleInterval,
+                             String sourceDir) {
+
+        public static LoadConfig fromSystemProperties() {
+            return new LoadConfig(
+                    Integer.getInteger("agent.load.sessions", 200),
+                    Integer.getInteger("agent.load.concurrency", 50),
+                    Double.parseDouble(System.getProperty("agent.load.project-document-share", "0.5")),
+                    Duration.ofMillis(Long.getLong("agent.load.latency-millis", 200)),
+                    Duration.ofMillis(Long.getLong("agent.load.jitter-millis", 100)),
+                    Double.parseDouble(System.getProperty("agent.load.failure-rate", "0.01")),
+                    Integer.getInteger("agent.load.max-retries", 2),
+                    Duration.ofMillis(Long.getLong("agent.load.sample-interval-millis", 1000)),
+                    System.getProperty("agent.load.source-dir", "src/main/java/dev/ankis/ai/models"));
+        }
+    }
+
+    public record Sample(long elapsedMillis, long heapUsedBytes, int threadCount, int activeSessions,
+                         long turnsCompleted) {
+    }
+
+    public record LoadReport(int sessions, int failedSessions, long turns, Duration elapsed, double turnsPerSecond,
+                             double p50TurnMillis, double p99TurnMillis, List<Sample> samples) {
+
+        void print() {
+            log.info("Sessions: {} ({} failed), turns: {}, elapsed: {} ms", sessions, failedSessions, turns, elapsed.toMillis());
+            log.info("Throughput: {} turns/s, turn latency p50: {} ms, p99: {} ms",
+                    String.format("%.1f", turnsPerSecond), String.format("%.1f", p50TurnMillis), String.format("%.1f", p99TurnMillis));
+            log.info("{} {} {} {} {}", String.format("%10s", "elapsed"), String.format("%12s", "heap (MB)"),
+                    String.format("%8s", "threads"), String.format("%8s", "active"), String.format("%8s", "turns"));
+            for (Sample sample : samples) {
+                log.info("{} {} {} {} {}", String.format("%10d", sample.elapsedMillis()),
+                        String.format("%12.1f", sample.heapUsedBytes() / (1024.0 * 1024.0)),
+                        String.format("%8d", sample.threadCount()), String.format("%8d", sample.activeSessions()),
+                        String.format("%8d", sample.turnsCompleted()));
+            }
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package dev.ankis.ai.load;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Soak test, only run on demand: {@code mvn test -Dtest=AgentLoadHarnessTests -Dagent.load=true}, tuned with
+ * the other {@code agent.load.*} properties.
+ */
+@EnabledIfSystemProperty(named = "agent.load", matches = "true")
+class AgentLoadHarnessTests {
+
+	@Test
+	void soak() throws Exception {
+		AgentLoadHarness.LoadConfig config = AgentLoadHarness.LoadConfig.fromSystemProperties();
+		AgentLoadHarness.LoadReport report = new AgentLoadHarness(config).run();
+
+		assertThat(report.turns()).isPositive();
+		assertThat(report.failedSessions()).isLessThan(report.sessions());
+	}
+
+}
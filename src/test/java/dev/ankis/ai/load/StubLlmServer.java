@@ -0,0 +1,174 @@
+package dev.ankis.ai.load;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local stand-in for the OpenAI chat completions endpoint, with configurable latency and failure injection.
+ *
+ * The replies script a short, valid session for the agents: requests with tools (ProjectDocumentAgent) get
+ * listJavaFiles, readFile of the first listed file, then terminate; requests without tools (FileAgent) get
+ * the same steps as fenced action blocks.
+ */
+@Slf4j
+class StubLlmServer implements AutoCloseable {
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final AtomicLong ids = new AtomicLong();
+    private final Duration latency;
+    private final Duration jitter;
+    private final double failureRate;
+    private final String sourceDir;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final HttpServer server;
+
+    StubLlmServer(Duration latency, Duration jitter, double failureRate, String sourceDir) throws IOException {
+        this.latency = latency;
+        this.jitter = jitter;
+        this.failureRate = failureRate;
+        this.sourceDir = sourceDir;
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/v1";
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            JsonNode request = mapper.readTree(exchange.getRequestBody());
+            long delay = latency.toMillis() + (jitter.isZero() ? 0 : ThreadLocalRandom.current().nextLong(jitter.toMillis() + 1));
+            Thread.sleep(delay);
+
+            if (ThreadLocalRandom.current().nextDouble() < failureRate) {
+                respond(exchange, 500, Map.of("error", Map.of("message", "Injected failure", "type", "server_error")));
+                return;
+            }
+            respond(exchange, 200, request.hasNonNull("tools") ? toolCallReply(request) : actionBlockReply(request));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private ObjectNode toolCallReply(JsonNode request) {
+        List<String> toolsCalled = new ArrayList<>();
+        String firstFile = null;
+        for (JsonNode message : request.path("messages")) {
+            String content = message.path("content").asText("");
+            if (!"assistant".equals(message.path("role").asText())) {
+                continue;
+            }
+            if (firstFile == null && content.startsWith("file: ")) {
+                firstFile = content.substring("file: ".length());
+            }
+            if (content.startsWith("{")) {
+                try {
+                    JsonNode action = mapper.readTree(content);
+                    if (action.hasNonNull("tool")) {
+                        toolsCalled.add(action.get("tool").asText());
+                    }
+                } catch (IOException e) {
+                    // Not a tool call
+                }
+            }
+        }
+
+        ObjectNode reply = completion("tool_calls");
+        ObjectNode message = (ObjectNode) reply.withArray("choices").get(0).get("message");
+        message.putNull("content");
+        String tool;
+        Map<String, Object> args;
+        if (toolsCalled.isEmpty()) {
+            tool = "listJavaFiles";
+            args = Map.of("sourcePath", sourceDir);
+        } else if (toolsCalled.size() == 1 && firstFile != null) {
+            tool = "readFile";
+            args = Map.of("filePath", sourceDir + "/" + firstFile);
+        } else {
+            tool = "terminate";
+            args = Map.of("message", "Done");
+        }
+        ObjectNode toolCall = message.putArray("tool_calls").addObject();
+        toolCall.put("id", "call_" + ids.incrementAndGet());
+        toolCall.put("type", "function");
+        try {
+            toolCall.putObject("function").put("name", tool).put("arguments", mapper.writeValueAsString(args));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return reply;
+    }
+
+    private ObjectNode actionBlockReply(JsonNode request) {
+        long turn = 0;
+        for (JsonNode message : request.path("messages")) {
+            if ("assistant".equals(message.path("role").asText())) {
+                turn++;
+            }
+        }
+        String action = switch ((int) turn) {
+            case 0 -> "{\"tool\" : \"listFiles\", \"args\" : {}}";
+            case 1 -> "{\"tool\" : \"readFile\", \"args\" : {\"fileName\" : \"pom.xml\"}}";
+            default -> "{\"tool\" : \"terminate\", \"args\" : {\"message\" : \"Done\"}}";
+        };
+        ObjectNode reply = completion("stop");
+        ((ObjectNode) reply.withArray("choices").get(0).get("message")).put("content", "```action\n" + action + "\n```");
+        return reply;
+    }
+
+    private ObjectNode completion(String finishReason) {
+        ObjectNode reply = mapper.createObjectNode();
+        reply.put("id", "chatcmpl-" + ids.incrementAndGet());
+        reply.put("object", "chat.completion");
+        reply.put("created", System.currentTimeMillis() / 1000);
+        reply.put("model", "stub");
+        ArrayNode choices = reply.putArray("choices");
+        ObjectNode choice = choices.addObject();
+        choice.put("index", 0);
+        choice.put("finish_reason", finishReason);
+        choice.putNull("logprobs");
+        ObjectNode message = choice.putObject("message");
+        message.put("role", "assistant");
+        message.putNull("refusal");
+        ObjectNode usage = reply.putObject("usage");
+        usage.put("prompt_tokens", 100);
+        usage.put("completion_tokens", 20);
+        usage.put("total_tokens", 120);
+        return reply;
+    }
+
+    private void respond(HttpExchange exchange, int status, Object body) throws IOException {
+        byte[] bytes = mapper.writeValueAsString(body).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
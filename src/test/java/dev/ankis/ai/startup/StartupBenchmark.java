@@ -0,0 +1,135 @@
+package dev.ankis.ai.startup;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Launches an agent entry point in fresh JVMs, with and without the AppCDS archive built by the {@code cds}
+ * profile, and reports the median time-to-first-request logged by {@link dev.ankis.ai.util.StartupProbe}.
+ *
+ * The agents exit right before their first model request, so no API key or network is needed. Configured
+ * with the {@code agent.startup.*} system properties, see {@link BenchmarkConfig#fromSystemProperties()}.
+ */
+@Slf4j
+public class StartupBenchmark {
+    private static final Pattern TIME_TO_FIRST_REQUEST = Pattern.compile("time-to-first-request=(\\d+)ms");
+
+    private final BenchmarkConfig config;
+
+    public StartupBenchmark(BenchmarkConfig config) {
+        this.config = config;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new StartupBenchmark(BenchmarkConfig.fromSystemProperties()).run();
+    }
+
+    public BenchmarkReport run() throws IOException, InterruptedException {
+        if (!Files.isRegularFile(config.jar())) {
+            throw new IllegalStateException(config.jar() + " not found, build it with mvn -Pcds package");
+        }
+        boolean withArchive = Files.isRegularFile(config.archive());
+        if (!withArchive) {
+            log.warn("{} not found, only measuring the default startup", config.archive());
+        }
+
+        List<Long> baseline = new ArrayList<>();
+        List<Long> cds = new ArrayList<>();
+        // Interleaved so that both variants see the same machine conditions
+        for (int i = 0; i < config.warmupRuns() + config.runs(); i++) {
+            long baselineMillis = launch(false);
+            long cdsMillis = withArchive ? launch(true) : 0;
+            if (i >= config.warmupRuns()) {
+                baseline.add(baselineMillis);
+                if (withArchive) {
+                    cds.add(cdsMillis);
+                }
+            }
+        }
+
+        BenchmarkReport report = new BenchmarkReport(config.mainClass(), config.runs(), median(baseline),
+                withArchive ? median(cds) : 0);
+        report.print();
+        return report;
+    }
+
+    private long launch(boolean withArchive) throws IOException, InterruptedException {
+        Path workDir = Files.createTempDirectory("agent-startup");
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        if (withArchive) {
+            command.add("-XX:SharedArchiveFile=" + config.archive());
+        }
+        command.add("-Dagent.startup.exit-on-first-request=true");
+        command.add("-Dagent.checkpoint.dir=" + workDir.resolve("checkpoints"));
+        command.add("-Dagent.docs.dir=" + workDir.resolve("docs"));
+        command.add("-cp");
+        command.add(config.jar().toString());
+        command.add(config.mainClass());
+
+        ProcessBuilder builder = new ProcessBuilder(command).redirectErrorStream(true);
+        builder.environment().put("OPENAI_API_KEY", "startup-benchmark");
+        Process process = builder.start();
+
+        Long millis = null;
+        try (BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = output.readLine()) != null) {
+                if (line.contains("Unable to use shared archive")) {
+                    // The JVM falls back to a plain startup, which would be measured as the CDS one
+                    process.destroy();
+                    throw new IllegalStateException(config.archive() + " was rejected, rebuild it with mvn -Pcds package: " + line);
+                }
+                Matcher matcher = TIME_TO_FIRST_REQUEST.matcher(line);
+                if (matcher.find()) {
+                    millis = Long.parseLong(matcher.group(1));
+                }
+            }
+        }
+        int exitCode = process.waitFor();
+        if (exitCode != 0 || millis == null) {
+            throw new IllegalStateException(config.mainClass() + " exited with " + exitCode + " before its first request");
+        }
+        return millis;
+    }
+
+    private static double median(List<Long> values) {
+        long[] sorted = values.stream().mapToLong(Long::longValue).sorted().toArray();
+        int middle = sorted.length / 2;
+        return sorted.length % 2 == 1 ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2.0;
+    }
+
+    public record BenchmarkConfig(String mainClass, Path jar, Path archive, int runs, int warmupRuns) {
+
+        public static BenchmarkConfig fromSystemProperties() {
+            return new BenchmarkConfig(
+                    System.getProperty("agent.startup.main-class", "dev.ankis.ai.complex.agents.models.ProjectDocumentAgent"),
+                    // Absolute, the archive only matches the exact class path it was recorded with
+                    Path.of(System.getProperty("agent.startup.jar", "target/ai-agents-0.0.1-SNAPSHOT.jar")).toAbsolutePath(),
+                    Path.of(System.getProperty("agent.startup.archive", "target/agents.jsa")).toAbsolutePath(),
+                    Integer.getInteger("agent.startup.runs", 10),
+                    Integer.getInteger("agent.startup.warmup-runs", 2));
+        }
+    }
+
+    public record BenchmarkReport(String mainClass, int runs, double medianMillis, double medianCdsMillis) {
+
+        void print() {
+            log.info("{}: median time-to-first-request over {} runs: {} ms", mainClass, runs, medianMillis);
+            if (medianCdsMillis > 0) {
+                log.info("{}: median time-to-first-request with AppCDS: {} ms ({} faster)", mainClass, medianCdsMillis,
+                        String.format("%.1f%%", 100 * (medianMillis - medianCdsMillis) / medianMillis));
+            }
+        }
+    }
+}
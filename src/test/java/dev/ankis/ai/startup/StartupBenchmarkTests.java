@@ -0,0 +1,23 @@
+package dev.ankis.ai.startup;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Startup benchmark, only run on demand once the cds profile has been packaged:
+ * {@code mvn -Pcds package -DskipTests && mvn test -Dtest=StartupBenchmarkTests -Dagent.startup.benchmark=true},
+ * tuned with the other {@code agent.startup.*} properties.
+ */
+@EnabledIfSystemProperty(named = "agent.startup.benchmark", matches = "true")
+class StartupBenchmarkTests {
+
+	@Test
+	void timeToFirstRequest() throws Exception {
+		StartupBenchmark.BenchmarkReport report = new StartupBenchmark(StartupBenchmark.BenchmarkConfig.fromSystemProperties()).run();
+
+		assertThat(report.medianMillis()).isPositive();
+	}
+
+}
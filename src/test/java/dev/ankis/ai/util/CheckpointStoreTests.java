@@ -0,0 +1,199 @@
+package dev.ankis.ai.util;
+
+import dev.ankis.ai.models.Checkpoint;
+import dev.ankis.ai.models.Message;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CheckpointStoreTests {
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void resumesFromTheLatestCheckpointAfterRestart() {
+		try (CheckpointStore store = new CheckpointStore(dir)) {
+			store.save(checkpoint("a", 1));
+			store.save(checkpoint("a", 2));
+			store.save(checkpoint("b", 1));
+		}
+
+		try (CheckpointStore store = new CheckpointStore(dir)) {
+			assertThat(store.sessionIds()).containsExactlyInAnyOrder("a", "b");
+			assertThat(store.load("a")).hasValueSatisfying(checkpoint -> assertThat(checkpoint.getIteration()).isEqualTo(2));
+		}
+	}
+
+	@Test
+	void replayStopsAtACorruptRecord() throws IOException {
+		try (CheckpointStore store = new CheckpointStore(dir)) {
+			store.save(checkpoint("a", 1));
+			store.save(checkpoint("a", 2));
+		}
+		Path segment = segments().getFirst();
+		int second = recordOffsets(segment).get(1);
+		// Flip a byte of the second payload, its crc no longer matches
+		try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+			file.seek(second + 10);
+			int b = file.read();
+			file.seek(second + 10);
+			file.write(b ^ 0xFF);
+		}
+
+		try (CheckpointStore store = new CheckpointStore(dir)) {
+			assertThat(store.load("a")).hasValueSatisfying(checkpoint -> assertThat(checkpoint.getIteration()).isEqualTo(1));
+			// The corrupt record is overwritten by the next save
+			store.save(checkpoint("a", 3));
+		}
+		try (CheckpointStore store = new CheckpointStore(dir)) {
+			assertThat(store.load("a")).hasValueSatisfying(checkpoint -> assertThat(checkpoint.getIteration()).isEqualTo(3));
+		}
+	}
+
+	@Test
+	void replayStopsAtATruncatedRecord() throws IOException {
+		try (CheckpointStore store = new CheckpointStore(dir)) {
+			store.save(checkpoint("a", 1));
+			store.save(checkpoint("b", 1));
+		}
+		Path segment = segments().getFirst();
+		int second = recordOffsets(segment).get(1);
+		// Crash half way through writing the second record
+		try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+			file.setLength(second + 20);
+		}
+
+		try (CheckpointStore store = new CheckpointStore(dir)) {
+			assertThat(store.sessionIds()).containsExactly("a");
+			store.save(checkpoint("b", 2));
+		}
+		try (CheckpointStore store = new CheckpointStore(dir)) {
+			assertThat(store.sessionIds()).containsExactlyInAnyOrder("a", "b");
+			assertThat(store.load("b")).hasValueSatisfying(checkpoint -> assertThat(checkpoint.getIteration()).isEqualTo(2));
+		}
+	}
+
+	@Test
+	void completedSessionsAreNotResumed() {
+		try (CheckpointStore store = new CheckpointStore(dir)) {
+			store.save(checkpoint("a", 1));
+			store.save(checkpoint("b", 1));
+			store.complete("a");
+			assertThat(store.load("a")).isEmpty();
+		}
+
+		try (CheckpointStore store = new CheckpointStore(dir)) {
+			assertThat(store.sessionIds()).containsExactly("b");
+			assertThat(store.load("a")).isEmpty();
+		}
+	}
+
+	@Test
+	void resumesAfterCompaction() throws IOException {
+		try (CheckpointStore store = new CheckpointStore(dir, 512, 2)) {
+			for (int i = 1; i <= 50; i++) {
+				store.save(checkpoint("a", i));
+				store.save(checkpoint("b", i));
+			}
+			store.complete("b");
+		}
+		// Compacted along the way, rather than 100 records worth of segments
+		assertThat(segments().size()).isLessThanOrEqualTo(4);
+
+		try (CheckpointStore store = new CheckpointStore(dir, 512, 2)) {
+			assertThat(store.sessionIds()).containsExactly("a");
+			assertThat(store.load("a")).hasValueSatisfying(checkpoint -> assertThat(checkpoint.getIteration()).isEqualTo(50));
+		}
+	}
+
+	@Test
+	void resumesAfterACrashBetweenRewritingAndDeletingSegments() throws IOException {
+		try (CheckpointStore store = new CheckpointStore(dir, 512, 100)) {
+			for (int i = 1; i <= 10; i++) {
+				store.save(checkpoint("a", i));
+				store.save(checkpoint("b", i));
+				store.save(checkpoint("c", i));
+			}
+			store.complete("b");
+		}
+		Path backup = Files.createDirectory(dir.resolve("backup"));
+		List<Path> oldSegments = segments();
+		for (Path segment : oldSegments) {
+			Files.copy(segment, backup.resolve(segment.getFileName()));
+		}
+
+		try (CheckpointStore store = new CheckpointStore(dir, 512, 100)) {
+			store.compact();
+		}
+		assertThat(segments()).doesNotContainAnyElementsOf(oldSegments);
+
+		// The old segments are deleted oldest first, a crash leaves any suffix of them behind
+		for (int kept = oldSegments.size(); kept >= 1; kept--) {
+			for (Path segment : oldSegments.subList(oldSegments.size() - kept, oldSegments.size())) {
+				Files.copy(backup.resolve(segment.getFileName()), segment, StandardCopyOption.REPLACE_EXISTING);
+			}
+			try (CheckpointStore store = new CheckpointStore(dir, 512, 100)) {
+				assertThat(store.sessionIds()).containsExactlyInAnyOrder("a", "c");
+				assertThat(store.load("a")).hasValueSatisfying(checkpoint -> assertThat(checkpoint.getIteration()).isEqualTo(10));
+				assertThat(store.load("c")).hasValueSatisfying(checkpoint -> assertThat(checkpoint.getIteration()).isEqualTo(10));
+			}
+			for (Path segment : oldSegments) {
+				Files.deleteIfExists(segment);
+			}
+		}
+	}
+
+	@Test
+	void doesNotCompactWhileMostCheckpointsAreLive() throws IOException {
+		try (CheckpointStore store = new CheckpointStore(dir, 256, 2)) {
+			for (int i = 1; i <= 10; i++) {
+				store.save(checkpoint("session-" + i, 1));
+			}
+			assertThat(segments()).hasSizeGreaterThan(2);
+			assertThat(dir.resolve("segment-000001.log")).exists();
+
+			for (int i = 1; i <= 8; i++) {
+				store.complete("session-" + i);
+			}
+			assertThat(dir.resolve("segment-000001.log")).doesNotExist();
+			assertThat(store.sessionIds()).containsExactlyInAnyOrder("session-9", "session-10");
+		}
+	}
+
+	private List<Path> segments() throws IOException {
+		try (Stream<Path> files = Files.list(dir)) {
+			return files.filter(path -> path.getFileName().toString().startsWith("segment-")).sorted().toList();
+		}
+	}
+
+	// Records are [length][crc32][json], one after the other from the start of the segment
+	private static List<Integer> recordOffsets(Path segment) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(segment));
+		List<Integer> offsets = new ArrayList<>();
+		int offset = 0;
+		while (offset + 8 <= buffer.capacity() && buffer.getInt(offset) > 0) {
+			offsets.add(offset);
+			offset += 8 + buffer.getInt(offset);
+		}
+		return offsets;
+	}
+
+	private static Checkpoint checkpoint(String sessionId, int iteration) {
+		return new Checkpoint(sessionId, iteration, List.of(Message.user("step " + iteration)),
+				Map.of("writtenDocs", List.of()), System.currentTimeMillis(), false);
+	}
+
+}
@@ -0,0 +1,152 @@
+package dev.ankis.ai.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DocumentOutputSinkTests {
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void keepsAnExistingConsolidatedFile() throws IOException {
+		// The second document quotes a header and a rule, only a header right after the separator starts a document
+		String existing = """
+				<!-- A.md -->
+
+				# A
+				---
+
+				<!-- not-a-document -->
+
+				text
+
+				---
+
+				<!-- pkg/B.md -->
+
+				# B""";
+		Files.writeString(dir.resolve("documentation.md"), existing);
+
+		try (DocumentOutputSink sink = sink(DocumentOutputSink.Mode.CONSOLIDATED)) {
+			// Rewriting a document with the same content rebuilds the file unchanged
+			sink.write("pkg/B.md", "# B");
+			sink.flush();
+			assertThat(Files.readString(dir.resolve("documentation.md"))).isEqualTo(existing);
+
+			sink.write("pkg/C.md", "# C");
+			sink.flush();
+		}
+		assertThat(Files.readString(dir.resolve("documentation.md")))
+				.isEqualTo(existing + "\n\n---\n\n<!-- pkg/C.md -->\n\n# C");
+	}
+
+	@Test
+	void keepsAnExistingArchive() throws IOException {
+		Map<String, String> existing = new LinkedHashMap<>();
+		existing.put("A.md", "# A");
+		existing.put("pkg/B.md", "# B");
+		try (OutputStream out = Files.newOutputStream(dir.resolve("docs.zip")); ZipOutputStream zip = new ZipOutputStream(out)) {
+			for (Map.Entry<String, String> document : existing.entrySet()) {
+				zip.putNextEntry(new ZipEntry(document.getKey()));
+				zip.write(document.getValue().getBytes(StandardCharsets.UTF_8));
+				zip.closeEntry();
+			}
+		}
+
+		try (DocumentOutputSink sink = sink(DocumentOutputSink.Mode.ARCHIVE)) {
+			sink.write("A.md", "# A");
+			sink.flush();
+			assertThat(readArchive()).isEqualTo(existing);
+
+			sink.write("C.md", "# C");
+			sink.flush();
+		}
+		existing.put("C.md", "# C");
+		assertThat(readArchive()).isEqualTo(existing);
+	}
+
+	@Test
+	void coalescesRewritesWithinABatch() throws IOException {
+		try (DocumentOutputSink sink = new DocumentOutputSink(dir, DocumentOutputSink.Mode.FILES, Duration.ofMinutes(1), 100)) {
+			sink.write("A.md", "first");
+			sink.write("A.md", "second");
+			sink.write("B.md", "other");
+			sink.write("A.md", "third");
+			// Still waiting for the batch to fill up
+			assertThat(dir.resolve("A.md")).doesNotExist();
+
+			sink.sync();
+			assertThat(Files.readString(dir.resolve("A.md"))).isEqualTo("third");
+			assertThat(Files.readString(dir.resolve("B.md"))).isEqualTo("other");
+		}
+		try (var files = Files.list(dir)) {
+			// No temporary file of an intermediate version is left behind
+			assertThat(files.map(path -> path.getFileName().toString()).toList()).containsExactlyInAnyOrder("A.md", "B.md");
+		}
+	}
+
+	@Test
+	void rejectsNamesOutsideOfTheOutputDirectory() {
+		try (DocumentOutputSink sink = sink(DocumentOutputSink.Mode.FILES)) {
+			for (String name : new String[] {"../escaped.md", "pkg/../../escaped.md", dir.getParent().resolve("escaped.md").toString(), ".", " "}) {
+				assertThatThrownBy(() -> sink.write(name, "content")).isInstanceOf(IllegalArgumentException.class);
+			}
+			assertThatThrownBy(() -> sink.write(null, "content")).isInstanceOf(IllegalArgumentException.class);
+			assertThatThrownBy(() -> sink.write("A.md", null)).isInstanceOf(IllegalArgumentException.class);
+		}
+		assertThat(dir.getParent().resolve("escaped.md")).doesNotExist();
+	}
+
+	@Test
+	void reportsAFailedBatchOnSyncAndFlush() throws IOException {
+		// A directory in the way of the document, it can never be written
+		Files.createDirectories(dir.resolve("blocked.md").resolve("child"));
+
+		try (DocumentOutputSink sink = sink(DocumentOutputSink.Mode.FILES)) {
+			sink.write("blocked.md", "content");
+			assertThatThrownBy(sink::sync).isInstanceOf(UncheckedIOException.class);
+
+			sink.write("blocked.md", "content");
+			assertThatThrownBy(sink::flush).isInstanceOf(UncheckedIOException.class);
+
+			// A failure is only reported once, later batches are written as usual
+			sink.write("A.md", "content");
+			sink.sync();
+			assertThat(Files.readString(dir.resolve("A.md"))).isEqualTo("content");
+		}
+	}
+
+	private DocumentOutputSink sink(DocumentOutputSink.Mode mode) {
+		return new DocumentOutputSink(dir, mode, Duration.ofMillis(10), 100);
+	}
+
+	private Map<String, String> readArchive() throws IOException {
+		Map<String, String> documents = new LinkedHashMap<>();
+		try (InputStream in = Files.newInputStream(dir.resolve("docs.zip")); ZipInputStream zip = new ZipInputStream(in)) {
+			ZipEntry entry;
+			while ((entry = zip.getNextEntry()) != null) {
+				documents.put(entry.getName(), new String(zip.readAllBytes(), StandardCharsets.UTF_8));
+			}
+		}
+		return documents;
+	}
+
+}
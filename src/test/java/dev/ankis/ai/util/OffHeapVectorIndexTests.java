@@ -0,0 +1,94 @@
+package dev.ankis.ai.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class OffHeapVectorIndexTests {
+
+	private final HashingEmbedder embedder = new HashingEmbedder(256);
+
+	@Test
+	void findsRewordedQuestionsAboveTheThreshold() {
+		Random random = new Random(1);
+		List<String> vocabulary = vocabulary(random, 3000);
+		OffHeapVectorIndex index = new OffHeapVectorIndex(embedder.dimension(), 5000, 8, 10);
+
+		List<float[]> rewordings = new ArrayList<>();
+		List<Integer> expected = new ArrayList<>();
+		for (int i = 0; i < 5000; i++) {
+			String[] words = new String[12];
+			for (int w = 0; w < words.length; w++) {
+				words[w] = vocabulary.get(random.nextInt(vocabulary.size()));
+			}
+			float[] question = embedder.embed(String.join(" ", words));
+			int slot = index.add(question);
+			// The same question with one word changed, as similar as a cache hit must be
+			words[random.nextInt(words.length)] = vocabulary.get(random.nextInt(vocabulary.size()));
+			float[] rewording = embedder.embed(String.join(" ", words));
+			if (dot(question, rewording) >= 0.85) {
+				rewordings.add(rewording);
+				expected.add(slot);
+			}
+		}
+
+		int found = 0;
+		for (int i = 0; i < rewordings.size(); i++) {
+			if (index.nearest(rewordings.get(i), 0.85, slot -> true) == expected.get(i)) {
+				found++;
+			}
+		}
+		assertThat(rewordings.size()).isGreaterThan(500);
+		assertThat((double) found / rewordings.size()).isGreaterThanOrEqualTo(0.98);
+	}
+
+	@Test
+	void evictsTheOldestVectorFromItsBuckets() {
+		OffHeapVectorIndex index = new OffHeapVectorIndex(embedder.dimension(), 3, 4, 10);
+		float[] oldest = embedder.embed("reset password link");
+		float[] second = embedder.embed("delete account forever");
+		float[] third = embedder.embed("change billing address");
+		float[] newest = embedder.embed("export invoices csv");
+		assertThat(index.add(oldest)).isEqualTo(0);
+		index.add(second);
+		index.add(third);
+
+		// Full, the oldest slot is reused
+		assertThat(index.add(newest)).isEqualTo(0);
+		assertThat(index.size()).isEqualTo(3);
+		for (int table = 0; table < 4; table++) {
+			assertThat(index.bucket(table, oldest)).doesNotContain(0);
+			assertThat(index.bucket(table, newest)).contains(0);
+			assertThat(index.bucket(table, second)).contains(1);
+			assertThat(index.bucket(table, third)).contains(2);
+		}
+		assertThat(index.nearest(oldest, 0.85, slot -> true)).isEqualTo(-1);
+		assertThat(index.nearest(newest, 0.85, slot -> true)).isEqualTo(0);
+		assertThat(index.nearest(second, 0.85, slot -> true)).isEqualTo(1);
+	}
+
+	private static List<String> vocabulary(Random random, int size) {
+		List<String> words = new ArrayList<>();
+		for (int i = 0; i < size; i++) {
+			StringBuilder word = new StringBuilder();
+			for (int c = 4 + random.nextInt(6); c > 0; c--) {
+				word.append((char) ('a' + random.nextInt(26)));
+			}
+			words.add(word.toString());
+		}
+		return words;
+	}
+
+	private static double dot(float[] a, float[] b) {
+		double dot = 0;
+		for (int i = 0; i < a.length; i++) {
+			dot += a[i] * b[i];
+		}
+		return dot;
+	}
+
+}
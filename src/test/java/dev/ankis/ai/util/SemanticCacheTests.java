@@ -0,0 +1,58 @@
+package dev.ankis.ai.util;
+
+import dev.ankis.ai.models.Message;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SemanticCacheTests {
+
+	private final SemanticCache cache = new SemanticCache(new HashingEmbedder(256), 0.85, 100);
+
+	@Test
+	void servesARewordedQuestion() {
+		cache.put("tenant-a", conversation("How do I reset my password?"), "Use the reset link.");
+
+		assertThat(cache.lookup("tenant-a", conversation("how to reset the password")))
+				.hasValueSatisfying(response -> assertThat(response).isEqualTo("Use the reset link."));
+		assertThat(cache.lookup("tenant-a", conversation("How do I delete my account?"))).isEmpty();
+	}
+
+	@Test
+	void doesNotServeAnotherScope() {
+		cache.put("tenant-a", conversation("How do I reset my password?"), "Use the reset link.");
+
+		assertThat(cache.lookup("tenant-b", conversation("How do I reset my password?"))).isEmpty();
+		assertThat(cache.lookup(conversation("How do I reset my password?"))).isEmpty();
+	}
+
+	@Test
+	void doesNotServeAnotherHistory() {
+		cache.put("tenant-a", conversation("How do I reset my password?"), "Use the reset link.");
+
+		// Same question, but after a different system prompt or earlier turn
+		assertThat(cache.lookup("tenant-a", List.of(Message.system("You are a billing assistant."),
+				Message.user("How do I reset my password?")))).isEmpty();
+		assertThat(cache.lookup("tenant-a", List.of(Message.system("You are a support assistant."),
+				Message.user("Hello"), Message.assistant("Hi!"), Message.user("How do I reset my password?")))).isEmpty();
+		// Contents that only match once concatenated
+		cache.put("tenant-a", List.of(Message.system("ab"), Message.user("c"), Message.user("What is my balance?")), "42");
+		assertThat(cache.lookup("tenant-a", List.of(Message.system("a"), Message.user("bc"),
+				Message.user("What is my balance?")))).isEmpty();
+	}
+
+	@Test
+	void onlyCachesAnswersToUserMessages() {
+		List<Message> messages = List.of(Message.system("You are a support assistant."), Message.assistant("Hi!"));
+		cache.put("tenant-a", messages, "response");
+
+		assertThat(cache.lookup("tenant-a", messages)).isEmpty();
+	}
+
+	private static List<Message> conversation(String question) {
+		return List.of(Message.system("You are a support assistant."), Message.user(question));
+	}
+
+}
@@ -0,0 +1,153 @@
+package dev.ankis.ai.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ToolResultCacheTests {
+
+	@TempDir
+	Path dir;
+
+	private final AtomicInteger reads = new AtomicInteger();
+
+	@Test
+	void servesReadsUntilTheFileChanges() throws Exception {
+		ToolResultCache cache = new ToolResultCache(1024);
+		Function<Map<String, Object>, Object> readFile = readFile(cache);
+		Path file = Files.writeString(dir.resolve("A.java"), "v1");
+		CountDownLatch changed = onChange(cache, file);
+
+		assertThat(readFile.apply(Map.of("filePath", file.toString()))).isEqualTo("v1");
+		assertThat(readFile.apply(Map.of("filePath", file.toString()))).isEqualTo("v1");
+		assertThat(reads.get()).isEqualTo(1);
+
+		Files.writeString(file, "v2");
+		assertThat(changed.await(10, TimeUnit.SECONDS)).isEqualTo(true);
+		assertThat(readFile.apply(Map.of("filePath", file.toString()))).isEqualTo("v2");
+	}
+
+	@Test
+	void doesNotKeepAResultReadBeforeAChangeDuringTheCall() throws Exception {
+		ToolResultCache cache = new ToolResultCache(1024);
+		Path file = Files.writeString(dir.resolve("A.java"), "v1");
+		CountDownLatch read = new CountDownLatch(1);
+		CountDownLatch resume = new CountDownLatch(1);
+		Function<Map<String, Object>, Object> readFile = cache.cached("readFile",
+				args -> List.of(Path.of((String) args.get("filePath"))), args -> {
+					String content = read(Path.of((String) args.get("filePath")));
+					read.countDown();
+					await(resume);
+					return content;
+				});
+		CountDownLatch changed = onChange(cache, file);
+
+		CompletableFuture<Object> first = CompletableFuture.supplyAsync(() -> readFile.apply(Map.of("filePath", file.toString())));
+		assertThat(read.await(10, TimeUnit.SECONDS)).isEqualTo(true);
+		// The change is seen while the call still holds the old content
+		Files.writeString(file, "v2");
+		assertThat(changed.await(10, TimeUnit.SECONDS)).isEqualTo(true);
+		resume.countDown();
+		assertThat(first.get(10, TimeUnit.SECONDS)).isEqualTo("v1");
+
+		assertThat(readFile.apply(Map.of("filePath", file.toString()))).isEqualTo("v2");
+	}
+
+	@Test
+	void evictsTheLeastRecentlyUsedResultsBeyondItsSize() throws IOException {
+		// Two 100 character files fit, three do not
+		ToolResultCache cache = new ToolResultCache(400);
+		Function<Map<String, Object>, Object> readFile = readFile(cache);
+		Path a = Files.writeString(dir.resolve("A.java"), "a".repeat(100));
+		Path b = Files.writeString(dir.resolve("B.java"), "b".repeat(100));
+		Path c = Files.writeString(dir.resolve("C.java"), "c".repeat(100));
+
+		readFile.apply(Map.of("filePath", a.toString()));
+		readFile.apply(Map.of("filePath", b.toString()));
+		readFile.apply(Map.of("filePath", a.toString()));
+		readFile.apply(Map.of("filePath", c.toString()));
+		assertThat(reads.get()).isEqualTo(3);
+		assertThat(cache.size()).isEqualTo(400L);
+
+		// B was the least recently used
+		readFile.apply(Map.of("filePath", a.toString()));
+		readFile.apply(Map.of("filePath", c.toString()));
+		assertThat(reads.get()).isEqualTo(3);
+		readFile.apply(Map.of("filePath", b.toString()));
+		assertThat(reads.get()).isEqualTo(4);
+	}
+
+	@Test
+	void stopsWatchingDirectoriesNoResultDependsOn() throws IOException {
+		ToolResultCache cache = new ToolResultCache(400);
+		Function<Map<String, Object>, Object> readFile = readFile(cache);
+		Path first = Files.createDirectory(dir.resolve("first"));
+		Path second = Files.createDirectory(dir.resolve("second"));
+		Path a = Files.writeString(first.resolve("A.java"), "a".repeat(200));
+		Path b = Files.writeString(second.resolve("B.java"), "b".repeat(200));
+
+		readFile.apply(Map.of("filePath", a.toString()));
+		assertThat(cache.watchedDirectories()).containsExactly(first.toAbsolutePath().normalize());
+
+		// Evicts A, nothing depends on its directory anymore
+		readFile.apply(Map.of("filePath", b.toString()));
+		assertThat(cache.watchedDirectories()).containsExactly(second.toAbsolutePath().normalize());
+
+		// Too large to be cached at all
+		Path large = Files.writeString(first.resolve("Large.java"), "l".repeat(300));
+		readFile.apply(Map.of("filePath", large.toString()));
+		assertThat(cache.watchedDirectories()).containsExactly(second.toAbsolutePath().normalize());
+
+		cache.invalidateAll();
+		assertThat(cache.watchedDirectories()).isEmpty();
+		assertThat(cache.size()).isEqualTo(0L);
+	}
+
+	private Function<Map<String, Object>, Object> readFile(ToolResultCache cache) {
+		return cache.cached("readFile", args -> List.of(Path.of((String) args.get("filePath"))), args -> {
+			reads.incrementAndGet();
+			return read(Path.of((String) args.get("filePath")));
+		});
+	}
+
+	private static CountDownLatch onChange(ToolResultCache cache, Path file) {
+		CountDownLatch changed = new CountDownLatch(1);
+		Path watched = file.toAbsolutePath().normalize();
+		cache.addChangeListener(path -> {
+			if (path.equals(watched)) {
+				changed.countDown();
+			}
+		});
+		return changed;
+	}
+
+	private static String read(Path file) {
+		try {
+			return Files.readString(file);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -0,0 +1,126 @@
+package dev.ankis.ai.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class WorkflowTests {
+
+	@Test
+	void runsIndependentStepsInParallel() {
+		// Each step waits for the other one to have started, run one after the other they would time out
+		CountDownLatch started = new CountDownLatch(2);
+		try (Workflow workflow = new Workflow()
+				.step("summary", List.of("text"), 1, inputs -> awaitBoth(started, "summary of " + inputs.get("text")))
+				.step("keywords", List.of("text"), 1, inputs -> awaitBoth(started, "keywords of " + inputs.get("text")))
+				.step("report", List.of("summary", "keywords"), inputs -> inputs.get("summary") + ", " + inputs.get("keywords"))) {
+
+			Map<String, String> outputs = workflow.run(Map.of("text", "input"));
+
+			assertThat(outputs.get("report")).isEqualTo("summary of input, keywords of input");
+		}
+	}
+
+	@Test
+	void retriesAFailingStepAlone() {
+		AtomicInteger flakyCalls = new AtomicInteger();
+		AtomicInteger steadyCalls = new AtomicInteger();
+		AtomicInteger reportCalls = new AtomicInteger();
+		try (Workflow workflow = new Workflow()
+				.step("flaky", List.of("text"), 2, inputs -> {
+					if (flakyCalls.incrementAndGet() == 1) {
+						throw new IllegalStateException("rate limited");
+					}
+					return "flaky";
+				})
+				.step("steady", List.of("text"), inputs -> "steady" + steadyCalls.incrementAndGet())
+				.step("report", List.of("flaky", "steady"), inputs -> {
+					reportCalls.incrementAndGet();
+					return inputs.get("flaky") + " " + inputs.get("steady");
+				})) {
+
+			Map<String, String> outputs = workflow.run(Map.of("text", "input"));
+
+			assertThat(outputs.get("report")).isEqualTo("flaky steady1");
+			assertThat(flakyCalls.get()).isEqualTo(2);
+			assertThat(steadyCalls.get()).isEqualTo(1);
+			assertThat(reportCalls.get()).isEqualTo(1);
+		}
+	}
+
+	@Test
+	void rerunOnlyRedoesTheFailedSteps() {
+		AtomicBoolean available = new AtomicBoolean(false);
+		AtomicInteger steadyCalls = new AtomicInteger();
+		AtomicInteger failingCalls = new AtomicInteger();
+		try (Workflow workflow = new Workflow()
+				.step("steady", List.of("text"), inputs -> "steady" + steadyCalls.incrementAndGet())
+				.step("failing", List.of("text"), 1, inputs -> {
+					failingCalls.incrementAndGet();
+					if (!available.get()) {
+						throw new IllegalStateException("unavailable");
+					}
+					return "failing";
+				})
+				.step("report", List.of("steady", "failing"), inputs -> inputs.get("steady") + " " + inputs.get("failing"))) {
+
+			assertThatThrownBy(() -> workflow.run(Map.of("text", "input"))).isInstanceOf(CompletionException.class);
+			assertThat(steadyCalls.get()).isEqualTo(1);
+
+			available.set(true);
+			Map<String, String> outputs = workflow.run(Map.of("text", "input"));
+
+			assertThat(outputs.get("report")).isEqualTo("steady1 failing");
+			assertThat(steadyCalls.get()).isEqualTo(1);
+			assertThat(failingCalls.get()).isEqualTo(2);
+
+			// Other inputs are not served from the cache
+			workflow.run(Map.of("text", "other"));
+			assertThat(steadyCalls.get()).isEqualTo(2);
+		}
+	}
+
+	@Test
+	void rejectsUnknownAndLaterInputs() {
+		try (Workflow unknown = new Workflow().step("summary", List.of("missing"), inputs -> "summary")) {
+			assertThatThrownBy(() -> unknown.run(Map.of("text", "input")))
+					.isInstanceOf(IllegalArgumentException.class)
+					.hasMessageContaining("missing");
+		}
+		try (Workflow later = new Workflow()
+				.step("report", List.of("summary"), inputs -> "report")
+				.step("summary", List.of("text"), inputs -> "summary")) {
+			assertThatThrownBy(() -> later.run(Map.of("text", "input")))
+					.isInstanceOf(IllegalArgumentException.class)
+					.hasMessageContaining("summary");
+		}
+		try (Workflow clash = new Workflow().step("text", List.of(), inputs -> "text")) {
+			assertThatThrownBy(() -> clash.run(Map.of("text", "input"))).isInstanceOf(IllegalArgumentException.class);
+		}
+		assertThatThrownBy(() -> new Workflow().step("summary", List.of(), inputs -> "a").step("summary", List.of(), inputs -> "b"))
+				.isInstanceOf(IllegalArgumentException.class);
+	}
+
+	private static String awaitBoth(CountDownLatch started, String output) {
+		started.countDown();
+		try {
+			if (!started.await(5, TimeUnit.SECONDS)) {
+				throw new IllegalStateException("The other step did not run in parallel");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+		return output;
+	}
+
+}